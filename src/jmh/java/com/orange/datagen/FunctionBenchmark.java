@@ -0,0 +1,63 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+import com.google.gson.JsonPrimitive;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single template function, written as a JSON value.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FunctionBenchmark {
+
+  @Param({
+      "int",
+      "int(1, 10)",
+      "double",
+      "double(150.0, 192.000)",
+      "alpha",
+      "alphanumeric(12)",
+      "uuid",
+      "datetime",
+      "datetime(now,dd/MMM/yyyy:HH:mm:ss Z,America/Los_Angeles)",
+      "datetime_seq(2021-08-11T00:00:00.000Z,2031-08-11T00:00:00.000Z,yyyy-MM-dd'T'HH:mm:ss.SSS'Z',UTC,second)",
+      "cat(int(0, 10), SPACE, km)",
+      "random(America/Los_Angeles, America/Vancouver, Europe/Berlin, Europe/Zurich, Europe/London)",
+  })
+  public String function;
+
+  private FieldGenerator generator;
+  private GeneratorContext context;
+  private final RecordBuffer buffer = new RecordBuffer();
+
+  @Setup
+  public void setUp() {
+    generator = TemplateCompiler.compile(new JsonPrimitive(function), 0);
+    context = new GeneratorContext(42L);
+  }
+
+  @Benchmark
+  public int writeJson() {
+    buffer.reset();
+    generator.writeJson(context, buffer);
+    return buffer.size();
+  }
+
+}
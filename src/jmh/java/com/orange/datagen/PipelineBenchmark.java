@@ -0,0 +1,63 @@
+package com.orange.datagen;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread scaling of the record pipeline, with the row and the column engine, and a writer that
+ * discards output. Scores are per record, so throughput should grow with the thread count until
+ * the drain becomes the limit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+  private static final int RECORDS = 120_000;
+
+  @Param({"1", "2", "4", "8"})
+  public int threads;
+
+  @Param({"election.json"})
+  public String template;
+
+  @Param({"rows", "columns"})
+  public String engine;
+
+  private RecordPipeline pipeline;
+
+  @Setup
+  public void setUp() throws IOException {
+    FieldGenerator generator = TemplateCompiler.compile(TemplateBenchmark.load(template), 1);
+    if (engine.equals("columns")) {
+      pipeline = new RecordPipeline(new ColumnBatch(generator)::writeJson, threads,
+          RecordPipeline.DEFAULT_BATCH_SIZE, RecordPipeline.DEFAULT_QUEUE_CAPACITY, 42L);
+    } else {
+      pipeline = new RecordPipeline(generator, threads,
+          RecordPipeline.DEFAULT_BATCH_SIZE, RecordPipeline.DEFAULT_QUEUE_CAPACITY, 42L);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public long records() throws Exception {
+    return pipeline.run(RECORDS, (batch, records) -> { });
+  }
+
+}
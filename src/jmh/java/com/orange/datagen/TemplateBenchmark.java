@@ -0,0 +1,65 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-record generation for the bundled templates, as JSON and as CSV rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TemplateBenchmark {
+
+  @Param({"template.json", "election.json"})
+  public String template;
+
+  private String json;
+  private FieldGenerator generator;
+  private GeneratorContext context;
+  private CsvGenerator csvGenerator;
+  private final RecordBuffer buffer = new RecordBuffer();
+
+  static String load(String name) throws IOException {
+    return Resources.toString(Resources.getResource("templates/" + name), Charsets.UTF_8);
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    json = load(template);
+    generator = TemplateCompiler.compile(json, 1);
+    context = new GeneratorContext(42L);
+    csvGenerator = CsvGenerator.getInstance(",");
+  }
+
+  @Benchmark
+  public int jsonRecord() {
+    buffer.reset();
+    generator.writeJson(context, buffer);
+    return buffer.size();
+  }
+
+  @Benchmark
+  public String csvRow() {
+    return csvGenerator.generateBody(json);
+  }
+
+}
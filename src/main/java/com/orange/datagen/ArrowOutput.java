@@ -0,0 +1,250 @@
+package com.orange.datagen;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorLoader;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.VectorUnloader;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Writes a compiled template as an Arrow IPC file. Columns are the flattened template fields
+ * (dotted names, as for CSV) with types taken from the generators: int to Int32, long and seq to
+ * Int64, double to Float64, booleans, datetimes to millisecond timestamps in their zone,
+ * random(...) to dictionary-encoded strings and anything else to UTF-8 strings. Workers generate
+ * a {@link ColumnBatch} at a time and copy its arrays into their own record batches, one
+ * {@link ChunkScheduler} chunk per batch, and batches are written in chunk order.
+ */
+public final class ArrowOutput {
+
+  public static final int DEFAULT_BATCH_ROWS = 64 * 1024;
+
+  private final ColumnBatch columns;
+  private final Schema schema;
+  private final List<Dictionary> dictionaries = new ArrayList<>();
+  private final int threadCount;
+  private final int batchRows;
+  private final long seed;
+  private RunMetrics metrics;
+  // State the workers of the last write shared, such as the values of unique(...) fields
+  private volatile ConcurrentMap<Object, Object> runState = new ConcurrentHashMap<>();
+
+  public ArrowOutput(FieldGenerator template, int threadCount, int batchRows, long seed) {
+    if (template.getType() != FieldGenerator.Type.OBJECT) {
+      throw new IllegalArgumentException("Arrow templates must be JSON objects");
+    }
+    if (threadCount < 1 || batchRows < 1) {
+      throw new IllegalArgumentException("thread count and batch size must be positive");
+    }
+    this.columns = new ColumnBatch(template);
+    String[] names = columns.getColumnNames();
+    List<Field> fields = new ArrayList<>();
+    for (int i = 0; i < names.length; i++) {
+      fields.add(field(names[i], columns.generator(i), i));
+    }
+    this.schema = new Schema(fields);
+    this.threadCount = threadCount;
+    this.batchRows = batchRows;
+    this.seed = seed;
+  }
+
+  public Schema getSchema() {
+    return schema;
+  }
+
+  public void setMetrics(RunMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public ConcurrentMap<Object, Object> runState() {
+    return runState;
+  }
+
+  private static Field field(String name, FieldGenerator column, long dictionaryId) {
+    if (column instanceof FieldGenerators.Choice) {
+      DictionaryEncoding encoding = new DictionaryEncoding(dictionaryId, false, new ArrowType.Int(32, true));
+      return new Field(name, new FieldType(false, new ArrowType.Int(32, true), encoding), null);
+    }
+    if (column instanceof FieldGenerators.Timestamps) {
+      ZoneId zone = ((FieldGenerators.Timestamps) column).zone();
+      String timezone = zone.equals(ZoneOffset.UTC) ? "UTC" : zone.getId();
+      return Field.notNullable(name, new ArrowType.Timestamp(TimeUnit.MILLISECOND, timezone));
+    }
+    switch (column.getType()) {
+      case NULL:
+        return Field.nullable(name, ArrowType.Null.INSTANCE);
+      case BOOLEAN:
+        return Field.notNullable(name, ArrowType.Bool.INSTANCE);
+      case INT:
+        return Field.notNullable(name, new ArrowType.Int(32, true));
+      case LONG:
+        return Field.notNullable(name, new ArrowType.Int(64, true));
+      case DOUBLE:
+        return Field.notNullable(name, new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE));
+      default:
+        return Field.notNullable(name, ArrowType.Utf8.INSTANCE);
+    }
+  }
+
+  // Write rows in total, in record batches of batchRows; returns the number of rows written
+  public long write(WritableByteChannel channel, long rows) throws Exception {
+    try (BufferAllocator allocator = new RootAllocator()) {
+      DictionaryProvider.MapDictionaryProvider provider = new DictionaryProvider.MapDictionaryProvider();
+      for (int i = 0; i < columns.columnCount(); i++) {
+        if (columns.kind(i) == ColumnBatch.CHOICE) {
+          provider.put(dictionary(allocator, (FieldGenerators.Choice) columns.generator(i), i));
+        }
+      }
+      ConcurrentMap<Object, Object> shared = new ConcurrentHashMap<>();
+      runState = shared;
+      List<GeneratorContext> contexts = new ArrayList<>();
+      for (int i = 0; i < threadCount; i++) {
+        contexts.add(new GeneratorContext(new SplittableRandom(seed), shared));
+      }
+      List<VectorSchemaRoot> roots = Collections.synchronizedList(new ArrayList<>());
+      long[] written = {0};
+      try (VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator);
+           ArrowFileWriter writer = new ArrowFileWriter(root, provider, channel)) {
+        VectorLoader loader = new VectorLoader(root);
+        writer.start();
+        new ChunkScheduler(rows, batchRows, seed).runOrdered(contexts, threadCount * 2,
+            (context, chunk, skip, count) -> fill(context, allocator, roots, count),
+            batch -> {
+              try {
+                long position = writer.bytesWritten();
+                loader.load(batch);
+                writer.writeBatch();
+                written[0] += batch.getLength();
+                if (metrics != null) {
+                  metrics.written(batch.getLength(), writer.bytesWritten() - position);
+                }
+              } finally {
+                batch.close();
+              }
+            });
+        writer.end();
+      } finally {
+        for (VectorSchemaRoot workerRoot : roots) {
+          workerRoot.close();
+        }
+        for (Dictionary dictionary : dictionaries) {
+          dictionary.getVector().close();
+        }
+        dictionaries.clear();
+      }
+      return written[0];
+    }
+  }
+
+  // One record batch from the worker's own vectors; the batch keeps its own references to the
+  // buffers, so the vectors can be refilled while it waits to be written
+  private ArrowRecordBatch fill(GeneratorContext context, BufferAllocator allocator, List<VectorSchemaRoot> roots,
+      int rows) {
+    VectorSchemaRoot root = (VectorSchemaRoot) context.getLocal(this);
+    if (root == null) {
+      root = VectorSchemaRoot.create(schema, allocator);
+      roots.add(root);
+      context.putLocal(this, root);
+    }
+    root.allocateNew();
+    ColumnBatch.Values[] values = columns.fill(context, rows);
+    List<FieldVector> vectors = root.getFieldVectors();
+    for (int i = 0; i < vectors.size(); i++) {
+      copy(i, values[i], vectors.get(i), rows);
+    }
+    root.setRowCount(rows);
+    return new VectorUnloader(root).getRecordBatch();
+  }
+
+  private Dictionary dictionary(BufferAllocator allocator, FieldGenerators.Choice column, long id) {
+    String[] options = column.options();
+    VarCharVector vector = new VarCharVector("dictionary-" + id, allocator);
+    vector.allocateNew(options.length);
+    for (int i = 0; i < options.length; i++) {
+      vector.setSafe(i, options[i].getBytes(StandardCharsets.UTF_8));
+    }
+    vector.setValueCount(options.length);
+    Dictionary dictionary = new Dictionary(vector, new DictionaryEncoding(id, false, new ArrowType.Int(32, true)));
+    dictionaries.add(dictionary);
+    return dictionary;
+  }
+
+  private void copy(int column, ColumnBatch.Values value, FieldVector vector, int count) {
+    switch (columns.kind(column)) {
+      case ColumnBatch.BOOLEAN:
+        BitVector bits = (BitVector) vector;
+        for (int row = 0; row < count; row++) {
+          bits.setSafe(row, value.booleans[row] ? 1 : 0);
+        }
+        break;
+      case ColumnBatch.INT:
+      case ColumnBatch.CHOICE:
+        IntVector ints = (IntVector) vector;
+        for (int row = 0; row < count; row++) {
+          ints.setSafe(row, value.ints[row]);
+        }
+        break;
+      case ColumnBatch.LONG:
+        BigIntVector longs = (BigIntVector) vector;
+        for (int row = 0; row < count; row++) {
+          longs.setSafe(row, value.longs[row]);
+        }
+        break;
+      case ColumnBatch.DOUBLE:
+        Float8Vector doubles = (Float8Vector) vector;
+        for (int row = 0; row < count; row++) {
+          doubles.setSafe(row, value.doubles[row]);
+        }
+        break;
+      case ColumnBatch.TIMESTAMP:
+        TimeStampMilliTZVector timestamps = (TimeStampMilliTZVector) vector;
+        for (int row = 0; row < count; row++) {
+          timestamps.setSafe(row, value.longs[row]);
+        }
+        break;
+      case ColumnBatch.TEXT:
+        VarCharVector text = (VarCharVector) vector;
+        for (int row = 0; row < count; row++) {
+          text.setSafe(row, value.bytes.array(), value.offsets[row], value.offsets[row + 1] - value.offsets[row]);
+        }
+        break;
+      default:
+        // literals repeat their text; null columns have no buffers
+        if (vector instanceof VarCharVector) {
+          byte[] constant = columns.constant(column);
+          for (int row = 0; row < count; row++) {
+            ((VarCharVector) vector).setSafe(row, constant);
+          }
+        }
+    }
+  }
+
+}
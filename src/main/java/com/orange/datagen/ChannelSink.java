@@ -0,0 +1,74 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes batches to a channel through a large direct buffer, so small batches are coalesced and
+ * large ones go to the channel without another copy.
+ */
+public final class ChannelSink implements OutputSink {
+
+  public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer;
+  private long size;
+
+  public ChannelSink(WritableByteChannel channel) {
+    this(channel, DEFAULT_BUFFER_SIZE);
+  }
+
+  public ChannelSink(WritableByteChannel channel, int bufferSize) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+  }
+
+  @Override
+  public void write(RecordBuffer batch) throws IOException {
+    write(batch.array(), 0, batch.size());
+  }
+
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    if (length > buffer.remaining()) {
+      flush();
+    }
+    if (length >= buffer.capacity()) {
+      writeFully(ByteBuffer.wrap(bytes, offset, length));
+    } else {
+      buffer.put(bytes, offset, length);
+    }
+    size += length;
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    buffer.flip();
+    writeFully(buffer);
+    buffer.clear();
+  }
+
+  private void writeFully(ByteBuffer src) throws IOException {
+    while (src.hasRemaining()) {
+      channel.write(src);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+}
@@ -0,0 +1,120 @@
+package com.orange.datagen;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Progress of a run into one output file, saved with --checkpoint every few seconds and at the end.
+ * Record i depends only on the seed, the batch size and i, so a run that stopped can be resumed
+ * by cutting the output back to the length saved with the last checkpoint and generating the
+ * remaining records from the next index on. A checkpoint is only saved once the output before it
+ * is on disk, and it replaces the previous one atomically.
+ */
+public final class Checkpoint {
+
+  public static final long DEFAULT_INTERVAL_SECONDS = 10;
+
+  // Fingerprint of the template and the settings that change the output bytes
+  private final String run;
+  private final long seed;
+  private final int batchSize;
+  private final long start;
+  private final long count;
+  // Records after start and bytes of the output, header included, that are on disk
+  private long records;
+  private long bytes;
+  private boolean complete;
+
+  public Checkpoint(String run, long seed, int batchSize, long start, long count) {
+    this.run = run;
+    this.seed = seed;
+    this.batchSize = batchSize;
+    this.start = start;
+    this.count = count;
+  }
+
+  // The checkpoint saved at path, or null if there is none
+  public static Checkpoint load(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return null;
+    }
+    JsonObject json = new JsonParser().parse(new String(Files.readAllBytes(path), StandardCharsets.UTF_8))
+        .getAsJsonObject();
+    Checkpoint checkpoint = new Checkpoint(json.get("run").getAsString(), json.get("seed").getAsLong(),
+        json.get("batch").getAsInt(), json.get("start").getAsLong(), json.get("count").getAsLong());
+    checkpoint.records = json.get("records").getAsLong();
+    checkpoint.bytes = json.get("bytes").getAsLong();
+    checkpoint.complete = json.get("complete").getAsBoolean();
+    return checkpoint;
+  }
+
+  // Write to a temporary file first, so a crash leaves either the old or the new checkpoint
+  public void save(Path path) throws IOException {
+    JsonObject json = new JsonObject();
+    json.addProperty("run", run);
+    json.addProperty("seed", seed);
+    json.addProperty("batch", batchSize);
+    json.addProperty("start", start);
+    json.addProperty("count", count);
+    json.addProperty("records", records);
+    json.addProperty("bytes", bytes);
+    json.addProperty("complete", complete);
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.write(temp, new GsonBuilder().setPrettyPrinting().create().toJson(json).getBytes(StandardCharsets.UTF_8));
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // Continue from a saved checkpoint, which must come from a run of the same records
+  public void resume(Checkpoint saved) {
+    if (!run.equals(saved.run) || seed != saved.seed || batchSize != saved.batchSize || start != saved.start
+        || count != saved.count) {
+      throw new IllegalArgumentException("the checkpoint was saved by a run with another template, seed, batch size,"
+          + " start index, count or output settings");
+    }
+    records = saved.records;
+    bytes = saved.bytes;
+    complete = saved.complete;
+  }
+
+  public long seed() {
+    return seed;
+  }
+
+  // Index of the next record to generate
+  public long next() {
+    return start + records;
+  }
+
+  public long remaining() {
+    return count - records;
+  }
+
+  public long records() {
+    return records;
+  }
+
+  public long bytes() {
+    return bytes;
+  }
+
+  public boolean complete() {
+    return complete;
+  }
+
+  public void setProgress(long records, long bytes) {
+    this.records = records;
+    this.bytes = bytes;
+  }
+
+  public void setComplete() {
+    complete = true;
+  }
+
+}
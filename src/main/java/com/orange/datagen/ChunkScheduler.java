@@ -0,0 +1,230 @@
+package com.orange.datagen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Splits a run of records into fixed-size chunks that workers claim from a shared counter, so a
+ * worker that finishes early takes the next chunk instead of idling while others catch up. Every
+ * chunk reseeds its worker's context from the run seed and the chunk index, so the records do not
+ * depend on the thread count or on which worker generated a chunk. Chunk k always covers records
+ * [k * chunk size, (k + 1) * chunk size), so a run can start at any record index: the chunk holding
+ * it is replayed from its start and the records before the index are skipped. Ordered runs hand
+ * chunks to a single consumer in index order through a reorder window that bounds how far workers
+ * run ahead. Each worker closes its context once it stops taking chunks.
+ */
+final class ChunkScheduler {
+
+  /**
+   * Generates one chunk with a context already seeded for it; the first skip records of the chunk
+   * are generated but not kept.
+   */
+  interface Producer<T> {
+    T produce(GeneratorContext context, long chunk, int skip, int records) throws Exception;
+  }
+
+  /**
+   * Receives ordered chunks on the calling thread.
+   */
+  interface Consumer<T> {
+    void accept(T result) throws Exception;
+  }
+
+  /**
+   * Generates and writes one chunk on a worker thread.
+   */
+  interface Task {
+    void run(int worker, GeneratorContext context, long chunk, int skip, int records) throws Exception;
+  }
+
+  private final long start;
+  private final long end;
+  private final int chunkSize;
+  private final long seed;
+
+  ChunkScheduler(long records, int chunkSize, long seed) {
+    this(0, records, chunkSize, seed);
+  }
+
+  // Records [start, start + records) of the run
+  ChunkScheduler(long start, long records, int chunkSize, long seed) {
+    if (start < 0 || records < 0 || chunkSize < 1) {
+      throw new IllegalArgumentException("start index and record count must not be negative and chunk size must be"
+          + " positive");
+    }
+    this.start = start;
+    try {
+      this.end = Math.addExact(start, records);
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("start index plus record count is over " + Long.MAX_VALUE);
+    }
+    this.chunkSize = chunkSize;
+    this.seed = seed;
+  }
+
+  private long firstChunk() {
+    return start / chunkSize;
+  }
+
+  long chunks() {
+    return end == start ? 0 : (end - 1) / chunkSize - firstChunk() + 1;
+  }
+
+  private int skip(long chunk) {
+    return (int) Math.max(0, start - chunk * chunkSize);
+  }
+
+  // The chunk end is taken from the records left, as (chunk + 1) * chunkSize can overflow on the last chunk
+  private int records(long chunk) {
+    long first = chunk * chunkSize;
+    return (int) (Math.min(chunkSize, end - first) - Math.max(0, start - first));
+  }
+
+  // SplitMix64 finalizer over the seed and chunk index, so neighbouring chunks get unrelated seeds
+  static long chunkSeed(long seed, long chunk) {
+    long z = seed + (chunk + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  // Chunks in index order; at most window chunks are generated but not yet consumed
+  <T> void runOrdered(List<GeneratorContext> contexts, int window, Producer<T> producer, Consumer<T> consumer)
+      throws Exception {
+    long firstChunk = firstChunk();
+    long lastChunk = firstChunk + chunks();
+    if (contexts.size() == 1) {
+      // nothing to overlap with, so the calling thread generates the chunks itself
+      GeneratorContext context = contexts.get(0);
+      try {
+        for (long chunk = firstChunk; chunk < lastChunk; chunk++) {
+          context.reseed(chunkSeed(seed, chunk), chunk * chunkSize);
+          T result;
+          try {
+            result = producer.produce(context, chunk, skip(chunk), records(chunk));
+          } catch (Exception e) {
+            // failures look the same as those of a worker thread
+            throw new ExecutionException(e);
+          }
+          consumer.accept(result);
+        }
+      } finally {
+        context.close();
+      }
+      return;
+    }
+    Semaphore permits = new Semaphore(window);
+    AtomicLong next = new AtomicLong(firstChunk);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Object[] ready = new Object[window];
+    ReentrantLock lock = new ReentrantLock();
+    Condition done = lock.newCondition();
+    ExecutorService executorService = Executors.newFixedThreadPool(contexts.size());
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      for (GeneratorContext context : contexts) {
+        futures.add(executorService.submit(() -> {
+          try {
+            while (true) {
+              permits.acquire();
+              long chunk = next.getAndIncrement();
+              if (chunk >= lastChunk) {
+                permits.release();
+                break;
+              }
+              context.reseed(chunkSeed(seed, chunk), chunk * chunkSize);
+              T result = producer.produce(context, chunk, skip(chunk), records(chunk));
+              lock.lock();
+              try {
+                ready[(int) (chunk % window)] = result;
+                done.signalAll();
+              } finally {
+                lock.unlock();
+              }
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+            lock.lock();
+            try {
+              done.signalAll();
+            } finally {
+              lock.unlock();
+            }
+          } finally {
+            context.close();
+          }
+          return null;
+        }));
+      }
+      for (long chunk = firstChunk; chunk < lastChunk; chunk++) {
+        int slot = (int) (chunk % window);
+        Object result;
+        lock.lock();
+        try {
+          while (ready[slot] == null) {
+            if (failure.get() != null) {
+              throw new ExecutionException(failure.get());
+            }
+            done.await(100, TimeUnit.MILLISECONDS);
+          }
+          result = ready[slot];
+          ready[slot] = null;
+        } finally {
+          lock.unlock();
+        }
+        @SuppressWarnings("unchecked")
+        T typed = (T) result;
+        consumer.accept(typed);
+        permits.release();
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  // Chunks in whatever order workers finish them, each written by the worker that generated it
+  void runUnordered(List<GeneratorContext> contexts, Task task) throws Exception {
+    long lastChunk = firstChunk() + chunks();
+    AtomicLong next = new AtomicLong(firstChunk());
+    ExecutorService executorService = Executors.newFixedThreadPool(contexts.size());
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      for (int i = 0; i < contexts.size(); i++) {
+        int worker = i;
+        GeneratorContext context = contexts.get(i);
+        futures.add(executorService.submit(() -> {
+          try {
+            for (long chunk = next.getAndIncrement(); chunk < lastChunk; chunk = next.getAndIncrement()) {
+              context.reseed(chunkSeed(seed, chunk), chunk * chunkSize);
+              task.run(worker, context, chunk, skip(chunk), records(chunk));
+            }
+          } finally {
+            context.close();
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+}
@@ -0,0 +1,352 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Column-at-a-time engine for a compiled template. A batch of records is generated one flattened
+ * field at a time into primitive arrays ({@code boolean[]}, {@code int[]}, {@code long[]},
+ * {@code double[]}, and offsets into a byte buffer for text), then serialized row by row as JSON
+ * lines, CSV rows or Arrow vectors. The arrays belong to the worker's {@link GeneratorContext}, so
+ * one instance serves all workers of a run.
+ */
+public final class ColumnBatch {
+
+  static final int CONSTANT = 0;
+  static final int BOOLEAN = 1;
+  static final int INT = 2;
+  static final int LONG = 3;
+  static final int DOUBLE = 4;
+  static final int TIMESTAMP = 5;
+  static final int CHOICE = 6;
+  static final int TEXT = 7;
+
+  private final String[] names;
+  private final FieldGenerator[] columns;
+  private final int[] kinds;
+  // Constant text of literal and null columns
+  private final byte[][] constants;
+  // Columns written in JSON records, with the constant JSON around them
+  private final int[] jsonColumns;
+  private final byte[][] jsonParts;
+
+  public ColumnBatch(FieldGenerator template) {
+    if (template.getType() != FieldGenerator.Type.OBJECT) {
+      throw new IllegalArgumentException("column batches need a JSON object template");
+    }
+    List<String> names = new ArrayList<>();
+    List<FieldGenerator> columns = new ArrayList<>();
+    FieldGenerators.flatten(template, "", names, columns);
+    this.names = names.toArray(new String[0]);
+    this.columns = columns.toArray(new FieldGenerator[0]);
+    this.kinds = new int[this.columns.length];
+    this.constants = new byte[this.columns.length][];
+    List<Integer> jsonColumns = new ArrayList<>();
+    for (int i = 0; i < this.columns.length; i++) {
+      FieldGenerator column = this.columns[i];
+      kinds[i] = kind(column);
+      if (column instanceof FieldGenerators.Literal) {
+        constants[i] = ((FieldGenerators.Literal) column).text();
+      } else if (column.getType() == FieldGenerator.Type.NULL) {
+        constants[i] = new byte[0];
+      } else {
+        jsonColumns.add(i);
+      }
+    }
+    this.jsonColumns = jsonColumns.stream().mapToInt(Integer::intValue).toArray();
+    List<byte[]> parts = new ArrayList<>();
+    List<FieldGenerator> leaves = new ArrayList<>();
+    RecordBuffer part = new RecordBuffer();
+    FieldGenerators.jsonLayout(template, part, parts, leaves);
+    parts.add(Arrays.copyOf(part.array(), part.size()));
+    if (leaves.size() != this.jsonColumns.length) {
+      throw new IllegalStateException("JSON layout does not match the flattened columns");
+    }
+    this.jsonParts = parts.toArray(new byte[0][]);
+  }
+
+  private static int kind(FieldGenerator column) {
+    if (column instanceof FieldGenerators.Literal || column.getType() == FieldGenerator.Type.NULL) {
+      return CONSTANT;
+    }
+    if (column instanceof FieldGenerators.Choice) {
+      return CHOICE;
+    }
+    if (column instanceof FieldGenerators.Timestamps) {
+      return TIMESTAMP;
+    }
+    switch (column.getType()) {
+      case BOOLEAN:
+        return BOOLEAN;
+      case INT:
+        return INT;
+      case LONG:
+        return LONG;
+      case DOUBLE:
+        return DOUBLE;
+      default:
+        return TEXT;
+    }
+  }
+
+  public String[] getColumnNames() {
+    return names.clone();
+  }
+
+  int columnCount() {
+    return columns.length;
+  }
+
+  FieldGenerator generator(int column) {
+    return columns[column];
+  }
+
+  int kind(int column) {
+    return kinds[column];
+  }
+
+  byte[] constant(int column) {
+    return constants[column];
+  }
+
+  // Generate the next rows of every column into this worker's arrays. Text columns gain nothing
+  // from being generated a column at a time, so the JSON and CSV writers leave them out and
+  // write them in place instead of copying them through the arrays.
+  Values[] fill(GeneratorContext context, int rows) {
+    return fill(context, rows, true);
+  }
+
+  private Values[] fill(GeneratorContext context, int rows, boolean text) {
+    Values[] values = (Values[]) context.getLocal(this);
+    if (values == null || values.length > 0 && values[0].capacity < rows) {
+      values = new Values[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        values[i] = new Values(kinds[i], rows);
+      }
+      context.putLocal(this, values);
+    }
+    for (int i = 0; i < columns.length; i++) {
+      FieldGenerator column = columns[i];
+      Values value = values[i];
+      switch (kinds[i]) {
+        case BOOLEAN:
+          column.fillBooleans(context, value.booleans, rows);
+          break;
+        case INT:
+          column.fillInts(context, value.ints, rows);
+          break;
+        case LONG:
+          column.fillLongs(context, value.longs, rows);
+          break;
+        case DOUBLE:
+          column.fillDoubles(context, value.doubles, rows);
+          break;
+        case TIMESTAMP:
+          ((FieldGenerators.Timestamps) column).fillEpochMillis(context, value.longs, rows);
+          break;
+        case CHOICE:
+          ((FieldGenerators.Choice) column).fillIndexes(context, value.ints, rows);
+          break;
+        case TEXT:
+          if (!text) {
+            break;
+          }
+          value.bytes.reset();
+          for (int row = 0; row < rows; row++) {
+            value.offsets[row] = value.bytes.size();
+            column.writeText(context, value.bytes);
+          }
+          value.offsets[rows] = value.bytes.size();
+          break;
+        default:
+          // constants are not generated
+      }
+    }
+    return values;
+  }
+
+  // Encoder of JSON records for a RecordPipeline
+  public RecordPipeline.BatchEncoder jsonEncoder() {
+    return new RecordPipeline.BatchEncoder() {
+      @Override
+      public void write(GeneratorContext context, int records, RecordBuffer out) {
+        writeJson(context, records, out);
+      }
+
+      @Override
+      public void write(GeneratorContext context, int skip, int records, int chunkSize, RecordBuffer out) {
+        writeJson(context, chunkSize, skip, skip + records, out);
+      }
+    };
+  }
+
+  // Encoder of CSV rows for a RecordPipeline
+  public RecordPipeline.BatchEncoder csvEncoder(byte[] delimiter) {
+    return new RecordPipeline.BatchEncoder() {
+      @Override
+      public void write(GeneratorContext context, int records, RecordBuffer out) {
+        writeCsv(context, records, delimiter, out);
+      }
+
+      @Override
+      public void write(GeneratorContext context, int skip, int records, int chunkSize, RecordBuffer out) {
+        writeCsv(context, chunkSize, skip, skip + records, delimiter, out);
+      }
+    };
+  }
+
+  // Generate the given number of JSON records, each followed by a line break
+  public void writeJson(GeneratorContext context, int records, RecordBuffer out) {
+    writeJson(context, records, 0, records, out);
+  }
+
+  // Rows [from, to) of a batch of the given number of rows. The columns of the whole batch are
+  // filled, since a column's values depend on the rows filled before them; text is written in
+  // place, so rows after to need none.
+  private void writeJson(GeneratorContext context, int rows, int from, int to, RecordBuffer out) {
+    Values[] values = fill(context, rows, false);
+    for (int row = 0; row < to; row++) {
+      int rowStart = out.size();
+      out.append(jsonParts[0]);
+      for (int i = 0; i < jsonColumns.length; i++) {
+        int column = jsonColumns[i];
+        Values value = values[column];
+        switch (kinds[column]) {
+          case BOOLEAN:
+            out.append(value.booleans[row]);
+            break;
+          case INT:
+            out.append(value.ints[row]);
+            break;
+          case LONG:
+            out.append(value.longs[row]);
+            break;
+          case DOUBLE:
+            out.append(value.doubles[row]);
+            break;
+          case CHOICE:
+            out.append(((FieldGenerators.Choice) columns[column]).json(value.ints[row]));
+            break;
+          case TEXT:
+            columns[column].writeJson(context, out);
+            break;
+          default:
+            // formatted timestamps
+            out.append('"');
+            int start = out.size();
+            writeText(context, column, value, row, out);
+            out.escapeJson(start);
+            out.append('"');
+        }
+        out.append(jsonParts[i + 1]);
+      }
+      out.append('\n');
+      if (row < from) {
+        out.setSize(rowStart);
+      }
+    }
+  }
+
+  // Generate the given number of CSV rows, each followed by a line break; null values are empty fields
+  public void writeCsv(GeneratorContext context, int records, byte[] delimiter, RecordBuffer out) {
+    writeCsv(context, records, 0, records, delimiter, out);
+  }
+
+  private void writeCsv(GeneratorContext context, int rows, int from, int to, byte[] delimiter, RecordBuffer out) {
+    Values[] values = fill(context, rows, false);
+    for (int row = 0; row < to; row++) {
+      int rowStart = out.size();
+      for (int column = 0; column < columns.length; column++) {
+        if (column > 0) {
+          out.append(delimiter);
+        }
+        int start = out.size();
+        if (kinds[column] == TEXT) {
+          columns[column].writeText(context, out);
+        } else {
+          writeText(context, column, values[column], row, out);
+        }
+        if (kinds[column] >= TIMESTAMP || kinds[column] == CONSTANT) {
+          out.quoteCsv(start, delimiter[0]);
+        }
+      }
+      out.append('\n');
+      if (row < from) {
+        out.setSize(rowStart);
+      }
+    }
+  }
+
+  // Value of a filled row as plain text
+  void writeText(GeneratorContext context, int column, Values value, int row, RecordBuffer out) {
+    switch (kinds[column]) {
+      case CONSTANT:
+        out.append(constants[column]);
+        break;
+      case BOOLEAN:
+        out.append(value.booleans[row]);
+        break;
+      case INT:
+        out.append(value.ints[row]);
+        break;
+      case LONG:
+        out.append(value.longs[row]);
+        break;
+      case DOUBLE:
+        out.append(value.doubles[row]);
+        break;
+      case TIMESTAMP:
+        ((FieldGenerators.Timestamps) columns[column]).writeText(context, value.longs[row], out);
+        break;
+      case CHOICE:
+        out.append(((FieldGenerators.Choice) columns[column]).text(value.ints[row]));
+        break;
+      default:
+        out.append(value.bytes.array(), value.offsets[row], value.offsets[row + 1] - value.offsets[row]);
+    }
+  }
+
+  /**
+   * One column of a worker's batch; only the arrays of the column's kind are allocated.
+   */
+  static final class Values {
+    final int capacity;
+    boolean[] booleans;
+    int[] ints;
+    long[] longs;
+    double[] doubles;
+    // Text of row r is bytes[offsets[r], offsets[r + 1])
+    int[] offsets;
+    RecordBuffer bytes;
+
+    private Values(int kind, int capacity) {
+      this.capacity = capacity;
+      switch (kind) {
+        case BOOLEAN:
+          booleans = new boolean[capacity];
+          break;
+        case INT:
+        case CHOICE:
+          ints = new int[capacity];
+          break;
+        case LONG:
+        case TIMESTAMP:
+          longs = new long[capacity];
+          break;
+        case DOUBLE:
+          doubles = new double[capacity];
+          break;
+        case TEXT:
+          offsets = new int[capacity + 1];
+          bytes = new RecordBuffer(capacity * 16);
+          break;
+        default:
+          // constants have no arrays
+      }
+    }
+  }
+
+}
@@ -0,0 +1,115 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses every batch on the worker that generated it, pigz-style, into a complete gzip member
+ * or zstd frame. Batches are written in order as usual, and concatenated members and frames form
+ * a valid gzip or zstd stream. Each batch can also be decompressed on its own, so the output can
+ * be split at batch boundaries. Deflaters and zstd contexts belong to the worker's
+ * {@link GeneratorContext}, are reused for every batch and are released when the context is closed.
+ */
+public final class Compression {
+
+  private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private final boolean zstd;
+  private final int level;
+
+  private Compression(boolean zstd, int level) {
+    this.zstd = zstd;
+    this.level = level;
+  }
+
+  // gzip or zstd with an optional level, e.g. gzip:1 or zstd:9
+  public static Compression parse(String value) {
+    int colon = value.indexOf(':');
+    String name = colon < 0 ? value : value.substring(0, colon);
+    boolean zstd;
+    int level;
+    if (name.equals("gzip")) {
+      zstd = false;
+      level = colon < 0 ? Deflater.DEFAULT_COMPRESSION : Integer.parseInt(value.substring(colon + 1));
+      if (colon >= 0 && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+        throw new IllegalArgumentException("gzip levels are 0 to 9: " + value);
+      }
+    } else if (name.equals("zstd")) {
+      zstd = true;
+      level = colon < 0 ? Zstd.defaultCompressionLevel() : Integer.parseInt(value.substring(colon + 1));
+      if (level < Zstd.minCompressionLevel() || level > Zstd.maxCompressionLevel()) {
+        throw new IllegalArgumentException("zstd levels are " + Zstd.minCompressionLevel() + " to "
+            + Zstd.maxCompressionLevel() + ": " + value);
+      }
+    } else {
+      throw new IllegalArgumentException("compression must be gzip or zstd: " + value);
+    }
+    return new Compression(zstd, level);
+  }
+
+  // File name suffix of the compressed output
+  public String extension() {
+    return zstd ? ".zst" : ".gz";
+  }
+
+  // Compress in into out as one gzip member or zstd frame
+  public void compress(GeneratorContext context, RecordBuffer in, RecordBuffer out) {
+    out.reset();
+    if (zstd) {
+      ZstdCompressCtx compressor = (ZstdCompressCtx) context.getLocal(this);
+      if (compressor == null) {
+        compressor = new ZstdCompressCtx().setLevel(level);
+        context.putLocal(this, compressor);
+        context.onClose(compressor);
+      }
+      int bound = (int) Zstd.compressBound(in.size());
+      out.ensureCapacity(bound);
+      out.advance(compressor.compressByteArray(out.array(), 0, bound, in.array(), 0, in.size()));
+      return;
+    }
+    Deflater deflater = (Deflater) context.getLocal(this);
+    if (deflater == null) {
+      deflater = new Deflater(level, true);
+      context.putLocal(this, deflater);
+      context.onClose(deflater::end);
+    }
+    deflater.reset();
+    deflater.setInput(in.array(), 0, in.size());
+    deflater.finish();
+    out.append(GZIP_HEADER);
+    while (!deflater.finished()) {
+      out.ensureCapacity(out.size() + Math.max(8192, in.size() / 4));
+      int length = out.array().length - out.size();
+      out.advance(deflater.deflate(out.array(), out.size(), length));
+    }
+    CRC32 crc = new CRC32();
+    crc.update(in.array(), 0, in.size());
+    appendIntLE(out, (int) crc.getValue());
+    appendIntLE(out, in.size());
+  }
+
+  // A single block such as a CSV header, outside any worker
+  public byte[] compress(byte[] bytes) {
+    RecordBuffer in = new RecordBuffer(bytes.length);
+    in.append(bytes);
+    RecordBuffer out = new RecordBuffer();
+    GeneratorContext context = GeneratorContext.unseeded();
+    try {
+      compress(context, in, out);
+    } finally {
+      context.close();
+    }
+    byte[] compressed = new byte[out.size()];
+    System.arraycopy(out.array(), 0, compressed, 0, out.size());
+    return compressed;
+  }
+
+  private static void appendIntLE(RecordBuffer out, int value) {
+    out.append((byte) value).append((byte) (value >>> 8)).append((byte) (value >>> 16)).append((byte) (value >>> 24));
+  }
+
+}
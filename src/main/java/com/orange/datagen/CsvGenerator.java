@@ -1,11 +1,8 @@
 package com.orange.datagen;
 
-import com.orange.datagen.util.Pair;
+import com.orange.datagen.util.RecordBuffer;
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -14,9 +11,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  *
@@ -24,63 +26,74 @@ import java.util.Map;
 public final class CsvGenerator {
 
   private static final Logger logger = LoggerFactory.getLogger(CsvGenerator.class);
-  private static CsvGenerator instance;
-  private String delimiter;
+  // One instance per delimiter
+  private static final ConcurrentMap<String, CsvGenerator> INSTANCES = new ConcurrentHashMap<>();
+  private final String delimiter;
+  private final GeneratorContext context;
+  private final RecordBuffer buffer = new RecordBuffer();
+  private String template;
+  private CsvRow row;
 
   private CsvGenerator(String delim) {
+    this(delim, GeneratorContext.unseeded());
+  }
+
+  private CsvGenerator(String delim, GeneratorContext context) {
     delimiter = delim;
+    this.context = context;
   }
 
   public static CsvGenerator getInstance(String delim) {
-    if (instance == null) { //lazy init
-      instance = new CsvGenerator(delim);
-    }
-    return instance;
+    return INSTANCES.computeIfAbsent(delim, CsvGenerator::new);
   }
 
-  public String generateHeader(String template) {
-    try {
-      JsonObject jsonObject = new JsonParser().parse(template).getAsJsonObject();
-      StringBuilder header = new StringBuilder();
-      for (Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
-        header.append(delimiter).append(entry.getKey());
-      }
-      return header.substring(1); //strip heading comma
-    } catch (Exception e) {
-      e.printStackTrace();
+  // The template is compiled once and reused while it does not change
+  private CsvRow compile(String template) {
+    if (!template.equals(this.template)) {
+      row = new CsvRow(TemplateCompiler.compile(template, 0), delimiter);
+      this.template = template;
     }
-    return "";
+    return row;
   }
 
-  public String generateBody(String template) {
-    try {
-      JsonObject jsonObject = new JsonParser().parse(template).getAsJsonObject();
-      StringBuilder body = new StringBuilder();
-      for (Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
-        Pair primitive = JsonGenerator.genPrimitives(entry.getValue(), 0);
-        body.append(delimiter).append(primitive.getFirst().toString());
-      }
-      return body.substring(1); //strip heading comma
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    return "";
+  public synchronized String generateHeader(String template) {
+    buffer.reset();
+    compile(template).writeHeader(buffer);
+    return buffer.toString();
   }
 
-  public static void main(String[] args) throws Exception {
+  public synchronized String generateBody(String template) {
+    buffer.reset();
+    compile(template).write(context, buffer);
+    return buffer.toString();
+  }
 
-    int eventCount = 5; // default event count
-    String template = "";
-    String delimiter = ","; //default comma, configure for pipe '|' etc.
-    ArgumentParser ap = ArgumentParsers.newFor(JsonGenerator.class.getSimpleName()).build().defaultHelp(true);
+  public static void main(String[] args) throws Exception {
+    ArgumentParser ap = ArgumentParsers.newFor(CsvGenerator.class.getSimpleName()).build().defaultHelp(true);
     ap.addArgument("-t", "--template")
         .required(true).help("template for generating synthetic data");
-    ap.addArgument("-n", "--number")
-        .required(false).help("number of events to generate");
+    ap.addArgument("-n", "--number", "--count")
+        .required(false).help("total number of events to generate, shared by all threads");
+    ap.addArgument("-a", "--nested")
+        .required(false).help("nested array size (if any); array elements become numbered columns");
+    ap.addArgument("-x", "--threads")
+        .required(false).help("number of threads (default 1)");
     ap.addArgument("-d", "--delimiter")
-        .required(false).help("delimiter to separate column");
+        .required(false).help("delimiter to separate column (default ,)");
+    ap.addArgument("-s", "--seed")
+        .required(false).help("random seed; the same seed and -b give the same output with any number of threads");
+    ap.addArgument("-b", "--batch")
+        .required(false).help("number of rows per output batch");
+    JsonGenerator.addOutputArguments(ap);
+    JsonGenerator.addRateArguments(ap);
+    JsonGenerator.addMetricsArguments(ap);
+    JsonGenerator.addEngineArgument(ap);
+    JsonGenerator.addKeyArguments(ap);
+    JsonGenerator.addUniqueArgument(ap);
+    JsonGenerator.addRangeArguments(ap);
     Namespace ns = ap.parseArgs(args);
 
+    String template;
     File temp = new File(ns.getString("template"));
     if (temp.exists()) {
       template = new String(Files.readAllBytes(Paths.get(ns.getString("template"))));
@@ -88,13 +101,41 @@ public final class CsvGenerator {
       URL url = Resources.getResource("./templates/template.json");
       template = Resources.toString(url, Charsets.UTF_8);
     }
-    eventCount = ns.getString("number") != null ? Integer.parseInt(ns.getString("number")) : 5;
-    delimiter = ns.getString("delimiter");
-    CsvGenerator csvGenerator = new CsvGenerator(delimiter);
-    logger.info(csvGenerator.generateHeader(template));
-    for (int i = 1; i <= eventCount; i++) {
-      logger.info(csvGenerator.generateBody(template));
+    long eventCount = ns.getString("number") != null ? Long.parseLong(ns.getString("number")) : 5;
+    int nestedArraySize = ns.getString("nested") != null ? Integer.parseInt(ns.getString("nested")) : 0;
+    int threadCount = ns.getString("threads") != null ? Integer.parseInt(ns.getString("threads")) : 1;
+    String delimiter = ns.getString("delimiter") != null ? ns.getString("delimiter") : ","; //configure for pipe '|' etc.
+    int batchSize = ns.getString("batch") != null ? Integer.parseInt(ns.getString("batch"))
+        : RecordPipeline.DEFAULT_BATCH_SIZE;
+    long seed = JsonGenerator.seed(ns);
+    logger.info("using seed {}", seed);
+
+    JsonGenerator.useKeys(ns);
+    FieldGenerator generator = JsonGenerator.compile(ns, template, nestedArraySize);
+    List<KeyFile.Writer> keys = new ArrayList<>();
+    generator = JsonGenerator.exportKeys(ns, generator, keys);
+    CsvRow row = new CsvRow(generator, delimiter);
+    RecordBuffer header = new RecordBuffer();
+    row.writeHeader(header);
+    header.append('\n');
+    RecordPipeline pipeline;
+    if (ns.getString("engine").equals("columns")) {
+      ColumnBatch columns = new ColumnBatch(generator);
+      byte[] separator = delimiter.getBytes(StandardCharsets.UTF_8);
+      pipeline = new RecordPipeline(columns.csvEncoder(separator), threadCount, batchSize,
+          RecordPipeline.DEFAULT_QUEUE_CAPACITY, seed);
+    } else {
+      pipeline = new RecordPipeline(row::write, threadCount, batchSize, RecordPipeline.DEFAULT_QUEUE_CAPACITY, seed);
     }
+    RunMetrics metrics = JsonGenerator.startMetrics(ns);
+    pipeline.setMetrics(metrics);
+    Pacer pacer = JsonGenerator.pacer(ns);
+    JsonGenerator.writeRecords(ns, pipeline, eventCount, pacer, ".csv", Arrays.copyOf(header.array(), header.size()),
+        template);
+    JsonGenerator.closeKeys(keys);
+    JsonGenerator.finishMetrics(ns, metrics, pacer, null, generator, pipeline.runState());
+
+    System.exit(0);
   }
 
 }
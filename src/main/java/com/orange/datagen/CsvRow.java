@@ -0,0 +1,65 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled template written as CSV rows. Nested objects and arrays are flattened into dotted
+ * columns such as {@code user.name} and {@code tags.0}, and every value is written straight into
+ * the record buffer and quoted in place following RFC 4180 when it needs to be.
+ */
+public final class CsvRow {
+
+  private final String[] names;
+  private final FieldGenerator[] columns;
+  private final byte[] delimiter;
+
+  public CsvRow(FieldGenerator template, String delimiter) {
+    if (template.getType() != FieldGenerator.Type.OBJECT) {
+      throw new IllegalArgumentException("CSV templates must be JSON objects");
+    }
+    if (delimiter == null || delimiter.isEmpty()) {
+      throw new IllegalArgumentException("empty CSV delimiter");
+    }
+    List<String> names = new ArrayList<>();
+    List<FieldGenerator> columns = new ArrayList<>();
+    FieldGenerators.flatten(template, "", names, columns);
+    this.names = names.toArray(new String[0]);
+    this.columns = columns.toArray(new FieldGenerator[0]);
+    this.delimiter = delimiter.getBytes(StandardCharsets.UTF_8);
+  }
+
+  public String[] getColumnNames() {
+    return names.clone();
+  }
+
+  public void writeHeader(RecordBuffer out) {
+    for (int i = 0; i < names.length; i++) {
+      if (i > 0) {
+        out.append(delimiter);
+      }
+      int start = out.size();
+      out.appendUtf8(names[i]);
+      out.quoteCsv(start, delimiter[0]);
+    }
+  }
+
+  // One row without the line break; null values are empty fields
+  public void write(GeneratorContext context, RecordBuffer out) {
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        out.append(delimiter);
+      }
+      FieldGenerator column = columns[i];
+      if (column.getType() != FieldGenerator.Type.NULL) {
+        int start = out.size();
+        column.writeText(context, out);
+        out.quoteCsv(start, delimiter[0]);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,114 @@
+package com.orange.datagen;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Datetime parsing and cached, immutable formatters for the datetime template functions.
+ */
+public final class DateTimes {
+
+  public static final String ISO_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+  public static final String DATE_PATTERN = "yyyy-MM-dd";
+  public static final String SIMPLE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+  // default ranges of the datetime and date keywords
+  static final String[] ISO_RANGE = {"1970-01-01T00:00:00.000Z", "2018-12-31T23:59:59.000Z"};
+  static final String[] DATE_RANGE = {"2018-05-01", "2018-12-31"};
+
+  private static final ConcurrentMap<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+  private DateTimes() {
+    //not called
+  }
+
+  // Formatters are immutable and thread-safe, so one instance per pattern is shared
+  public static DateTimeFormatter formatter(String pattern) {
+    return FORMATTERS.computeIfAbsent(pattern, DateTimeFormatter::ofPattern);
+  }
+
+  public static DateTimeFormatter formatter(String pattern, ZoneId zone) {
+    return formatter(pattern).withZone(zone);
+  }
+
+  public static ChronoUnit parseUnit(String unit) {
+    switch (unit.trim()) {
+      case "millisecond":
+        return ChronoUnit.MILLIS;
+      case "second":
+        return ChronoUnit.SECONDS;
+      case "minute":
+        return ChronoUnit.MINUTES;
+      case "hour":
+        return ChronoUnit.HOURS;
+      case "day":
+        return ChronoUnit.DAYS;
+      case "month":
+        return ChronoUnit.MONTHS;
+      case "year":
+        return ChronoUnit.YEARS;
+      default:
+        throw new IllegalArgumentException("unknown datetime unit: " + unit);
+    }
+  }
+
+  // now, now-5 or now+5
+  public static int parseNowOffset(String value) {
+    value = value.trim();
+    if (value.startsWith("now")) {
+      String[] offset = value.contains("-") ? value.split("-") : value.split("\\+");
+      if (offset.length == 2) {
+        return Integer.parseInt(offset[1].trim()) * (value.contains("-") ? -1 : 1);
+      }
+    }
+    return 0;
+  }
+
+  // now[+/-offset] in the given unit, a datetime in the template format, or an ISO-8601 datetime
+  public static ZonedDateTime parse(String value, DateTimeFormatter formatter, ZoneId zone, ChronoUnit unit) {
+    value = value.trim();
+    if (value.startsWith("now")) {
+      return ZonedDateTime.now(zone).plus(parseNowOffset(value), unit);
+    }
+    if (formatter != null) {
+      try {
+        return ZonedDateTime.parse(value, formatter.withZone(zone));
+      } catch (DateTimeParseException e) {
+        // try ISO-8601 below
+      }
+    }
+    ZonedDateTime iso = parseIso(value, zone);
+    if (iso == null) {
+      throw new IllegalArgumentException("cannot parse datetime: " + value);
+    }
+    return iso;
+  }
+
+  // ISO-8601 datetime, local datetime or date; null if the value is none of them
+  public static ZonedDateTime parseIso(String value, ZoneId zone) {
+    value = value.trim();
+    try {
+      return ZonedDateTime.parse(value).withZoneSameInstant(zone);
+    } catch (DateTimeParseException e) {
+      // no zone
+    }
+    try {
+      return LocalDateTime.parse(value).atZone(zone);
+    } catch (DateTimeParseException e) {
+      // no time
+    }
+    try {
+      return LocalDate.parse(value).atStartOfDay(zone);
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+}
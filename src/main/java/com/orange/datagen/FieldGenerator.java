@@ -0,0 +1,88 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+
+/**
+ * A pre-parsed generator for one template value, produced by {@link TemplateCompiler}.
+ */
+public abstract class FieldGenerator {
+
+  /**
+   * Kind of value a generator produces.
+   */
+  public enum Type {
+    NULL, BOOLEAN, INT, LONG, DOUBLE, STRING, OBJECT, ARRAY
+  }
+
+  private final Type type;
+
+  protected FieldGenerator(Type type) {
+    this.type = type;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  // Generate the next value: a boxed primitive, a String, a gson element for objects/arrays, or null
+  public abstract Object generate(GeneratorContext context);
+
+  // Next value of a BOOLEAN generator, unboxed where the generator supports it
+  public boolean nextBoolean(GeneratorContext context) {
+    return (Boolean) generate(context);
+  }
+
+  // Next value of an INT or LONG generator
+  public long nextLong(GeneratorContext context) {
+    return ((Number) generate(context)).longValue();
+  }
+
+  // Next value of a numeric generator
+  public double nextDouble(GeneratorContext context) {
+    return ((Number) generate(context)).doubleValue();
+  }
+
+  // Fill values[0, count) with the next values; generators with a cheaper tight loop override these
+  public void fillBooleans(GeneratorContext context, boolean[] values, int count) {
+    for (int i = 0; i < count; i++) {
+      values[i] = nextBoolean(context);
+    }
+  }
+
+  public void fillInts(GeneratorContext context, int[] values, int count) {
+    for (int i = 0; i < count; i++) {
+      values[i] = (int) nextLong(context);
+    }
+  }
+
+  public void fillLongs(GeneratorContext context, long[] values, int count) {
+    for (int i = 0; i < count; i++) {
+      values[i] = nextLong(context);
+    }
+  }
+
+  public void fillDoubles(GeneratorContext context, double[] values, int count) {
+    for (int i = 0; i < count; i++) {
+      values[i] = nextDouble(context);
+    }
+  }
+
+  // Write the next value as plain text, the way it appears inside cat(...) or a CSV column
+  public void writeText(GeneratorContext context, RecordBuffer out) {
+    out.appendUtf8(String.valueOf(generate(context)));
+  }
+
+  // Write the next value as JSON
+  public void writeJson(GeneratorContext context, RecordBuffer out) {
+    if (type == Type.STRING) {
+      out.append('"');
+      int start = out.size();
+      writeText(context, out);
+      out.escapeJson(start);
+      out.append('"');
+    } else {
+      writeText(context, out);
+    }
+  }
+
+}
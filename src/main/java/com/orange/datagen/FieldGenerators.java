@@ -0,0 +1,1369 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.AliasTable;
+import com.orange.datagen.util.FingerprintSet;
+import com.orange.datagen.util.RecordBuffer;
+import com.orange.datagen.util.ZipfSampler;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Field generator implementations built by {@link TemplateCompiler}.
+ */
+final class FieldGenerators {
+
+  private FieldGenerators() {
+    //not called
+  }
+
+  // Encode a string as a quoted, escaped JSON string
+  static byte[] jsonString(String value) {
+    RecordBuffer buffer = new RecordBuffer(value.length() + 2);
+    buffer.append('"');
+    buffer.appendUtf8(value);
+    buffer.escapeJson(1);
+    buffer.append('"');
+    return Arrays.copyOf(buffer.array(), buffer.size());
+  }
+
+  // Convert a generated value to its gson representation
+  static JsonElement toJsonElement(GeneratorContext context, FieldGenerator generator) {
+    Object value = generator.generate(context);
+    if (value == null) {
+      return JsonNull.INSTANCE;
+    }
+    switch (generator.getType()) {
+      case BOOLEAN:
+        return new JsonPrimitive((Boolean) value);
+      case INT:
+      case LONG:
+      case DOUBLE:
+        return new JsonPrimitive((Number) value);
+      case OBJECT:
+      case ARRAY:
+        return (JsonElement) value;
+      default:
+        return new JsonPrimitive(value.toString());
+    }
+  }
+
+  // Copy of the tree with every object field and array element measured on sampled records;
+  // leaf generators are shared, so their run-wide state such as sequences is kept
+  static FieldGenerator instrument(FieldGenerator node, String path, FieldProfiler profiler) {
+    FieldGenerator instrumented = node;
+    if (node instanceof ObjectNode) {
+      ObjectNode object = (ObjectNode) node;
+      FieldGenerator[] values = new FieldGenerator[object.values.length];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = instrument(object.values[i], path + "." + object.names[i], profiler);
+      }
+      instrumented = new ObjectNode(object.names, values);
+    } else if (node instanceof ArrayNode) {
+      ArrayNode array = (ArrayNode) node;
+      FieldGenerator[] elements = new FieldGenerator[array.elements.length];
+      for (int i = 0; i < elements.length; i++) {
+        elements[i] = instrument(array.elements[i], path + "[]", profiler);
+      }
+      instrumented = new ArrayNode(elements, array.size);
+    }
+    return new Profiled(instrumented, profiler.stats(path), profiler);
+  }
+
+  // Copy of the tree whose field at a dotted path such as customer.id saves its values as keys;
+  // the field must be an int, long or seq outside any array
+  static FieldGenerator exportKeys(FieldGenerator node, String path, KeyFile.Writer keys) {
+    if (!(node instanceof ObjectNode)) {
+      throw new IllegalArgumentException("no key field " + path + " outside arrays");
+    }
+    ObjectNode object = (ObjectNode) node;
+    int dot = path.indexOf('.');
+    String name = dot < 0 ? path : path.substring(0, dot);
+    for (int i = 0; i < object.names.length; i++) {
+      if (object.names[i].equals(name)) {
+        FieldGenerator[] values = object.values.clone();
+        if (dot >= 0) {
+          values[i] = exportKeys(values[i], path.substring(dot + 1), keys);
+        } else if (values[i].getType() == FieldGenerator.Type.INT || values[i].getType() == FieldGenerator.Type.LONG) {
+          values[i] = new ExportedKey(values[i], keys);
+        } else {
+          throw new IllegalArgumentException("key field " + path + " must be an int, long or seq");
+        }
+        return new ObjectNode(object.names, values);
+      }
+    }
+    throw new IllegalArgumentException("no key field " + path + " outside arrays");
+  }
+
+  // Leaf generators of the tree with dotted column names: object fields by name, array elements
+  // by index; an empty prefix is the top level
+  static void flatten(FieldGenerator node, String prefix, List<String> names, List<FieldGenerator> columns) {
+    if (node instanceof ObjectNode) {
+      ObjectNode object = (ObjectNode) node;
+      for (int i = 0; i < object.names.length; i++) {
+        flatten(object.values[i], prefix.isEmpty() ? object.names[i] : prefix + "." + object.names[i],
+            names, columns);
+      }
+    } else if (node instanceof ArrayNode) {
+      ArrayNode array = (ArrayNode) node;
+      int index = 0;
+      for (int i = 1; i <= array.size; i++) {
+        for (FieldGenerator element : array.elements) {
+          flatten(element, prefix.isEmpty() ? String.valueOf(index) : prefix + "." + index, names, columns);
+          index++;
+        }
+      }
+    } else {
+      names.add(prefix);
+      columns.add(node);
+    }
+  }
+
+  // Track the values of every unique(...) of the tree in Bloom filters of the given size
+  static void useBloomFilters(FieldGenerator node, long bytes, long expected) {
+    if (node instanceof Unique) {
+      ((Unique) node).useBloomFilter(bytes, expected);
+      useBloomFilters(((Unique) node).value, bytes, expected);
+    } else if (node instanceof ObjectNode) {
+      for (FieldGenerator value : ((ObjectNode) node).values) {
+        useBloomFilters(value, bytes, expected);
+      }
+    } else if (node instanceof ArrayNode) {
+      for (FieldGenerator element : ((ArrayNode) node).elements) {
+        useBloomFilters(element, bytes, expected);
+      }
+    } else if (node instanceof Concat) {
+      for (FieldGenerator part : ((Concat) node).parts) {
+        useBloomFilters(part, bytes, expected);
+      }
+    } else if (node instanceof Quoted) {
+      useBloomFilters(((Quoted) node).value, bytes, expected);
+    } else if (node instanceof Upper) {
+      useBloomFilters(((Upper) node).value, bytes, expected);
+    } else if (node instanceof Lower) {
+      useBloomFilters(((Lower) node).value, bytes, expected);
+    } else if (node instanceof NestedJson) {
+      useBloomFilters(((NestedJson) node).template, bytes, expected);
+    }
+  }
+
+  // Values, re-draws and memory of every unique(...) field of a template in a run, by dotted field
+  // name, from the state the run's workers shared
+  static JsonArray uniqueSummary(FieldGenerator template, Map<Object, Object> runState) {
+    List<String> names = new ArrayList<>();
+    List<FieldGenerator> columns = new ArrayList<>();
+    flatten(template, "", names, columns);
+    JsonArray summary = new JsonArray();
+    Set<FieldGenerator> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (int i = 0; i < columns.size(); i++) {
+      // array elements repeat the same generator under several names
+      if (columns.get(i) instanceof Unique && seen.add(columns.get(i))) {
+        Unique.State state = (Unique.State) runState.get(columns.get(i));
+        JsonObject field = new JsonObject();
+        field.addProperty("field", names.get(i));
+        field.addProperty("values", state != null ? state.seen.size() : 0);
+        field.addProperty("redraws", state != null ? state.redraws.sum() : 0);
+        field.addProperty("bytes", state != null ? state.seen.memoryBytes() : 0);
+        summary.add(field);
+      }
+    }
+    return summary;
+  }
+
+  // JSON skeleton of the tree for column-wise writing: the flattened leaves in flatten order, and
+  // the constant JSON before each leaf and after the last one. Literals and nulls are folded into
+  // the constant parts and left out of the leaves.
+  static void jsonLayout(FieldGenerator node, RecordBuffer part, List<byte[]> parts, List<FieldGenerator> leaves) {
+    if (node instanceof ObjectNode) {
+      ObjectNode object = (ObjectNode) node;
+      part.append('{');
+      for (int i = 0; i < object.values.length; i++) {
+        if (i > 0) {
+          part.append(',');
+        }
+        part.append(object.jsonNames[i]).append(':');
+        jsonLayout(object.values[i], part, parts, leaves);
+      }
+      part.append('}');
+    } else if (node instanceof ArrayNode) {
+      ArrayNode array = (ArrayNode) node;
+      part.append('[');
+      boolean first = true;
+      for (int i = 1; i <= array.size; i++) {
+        for (FieldGenerator element : array.elements) {
+          if (!first) {
+            part.append(',');
+          }
+          jsonLayout(element, part, parts, leaves);
+          first = false;
+        }
+      }
+      part.append(']');
+    } else if (node instanceof Literal || node.getType() == FieldGenerator.Type.NULL) {
+      node.writeJson(null, part);
+    } else {
+      parts.add(Arrays.copyOf(part.array(), part.size()));
+      part.reset();
+      leaves.add(node);
+    }
+  }
+
+  // Measures time and allocation of the wrapped generator when the record is sampled
+  static final class Profiled extends FieldGenerator {
+    private final FieldGenerator value;
+    private final FieldProfiler.Stats stats;
+    private final FieldProfiler profiler;
+
+    Profiled(FieldGenerator value, FieldProfiler.Stats stats, FieldProfiler profiler) {
+      super(value.getType());
+      this.value = value;
+      this.stats = stats;
+      this.profiler = profiler;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      if (!context.sampling()) {
+        return value.generate(context);
+      }
+      long bytes = profiler.allocatedBytes();
+      long start = System.nanoTime();
+      Object result = value.generate(context);
+      stats.add(System.nanoTime() - start, profiler.allocatedBytes() - bytes);
+      return result;
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      if (!context.sampling()) {
+        value.writeText(context, out);
+        return;
+      }
+      long bytes = profiler.allocatedBytes();
+      long start = System.nanoTime();
+      value.writeText(context, out);
+      stats.add(System.nanoTime() - start, profiler.allocatedBytes() - bytes);
+    }
+
+    @Override
+    public void writeJson(GeneratorContext context, RecordBuffer out) {
+      if (!context.sampling()) {
+        value.writeJson(context, out);
+        return;
+      }
+      long bytes = profiler.allocatedBytes();
+      long start = System.nanoTime();
+      value.writeJson(context, out);
+      stats.add(System.nanoTime() - start, profiler.allocatedBytes() - bytes);
+    }
+  }
+
+  static final class Literal extends FieldGenerator {
+    private final String value;
+    private final byte[] text;
+    private final byte[] json;
+
+    Literal(String value) {
+      super(Type.STRING);
+      this.value = value;
+      this.text = value.getBytes(StandardCharsets.UTF_8);
+      this.json = jsonString(value);
+    }
+
+    byte[] text() {
+      return text;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return value;
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(text);
+    }
+
+    @Override
+    public void writeJson(GeneratorContext context, RecordBuffer out) {
+      out.append(json);
+    }
+  }
+
+  static final class Null extends FieldGenerator {
+    Null() {
+      super(Type.NULL);
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return null;
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.appendAscii("null");
+    }
+  }
+
+  static final class RandomBoolean extends FieldGenerator {
+    RandomBoolean() {
+      super(Type.BOOLEAN);
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return RandomData.getRandomBoolean(context.random());
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(RandomData.getRandomBoolean(context.random()));
+    }
+
+    @Override
+    public boolean nextBoolean(GeneratorContext context) {
+      return RandomData.getRandomBoolean(context.random());
+    }
+
+    @Override
+    public void fillBooleans(GeneratorContext context, boolean[] values, int count) {
+      SplittableRandom random = context.random();
+      for (int i = 0; i < count; i++) {
+        values[i] = random.nextBoolean();
+      }
+    }
+  }
+
+  static final class RandomInt extends FieldGenerator {
+    private final int min;
+    private final int max;
+
+    RandomInt(int min, int max) {
+      super(Type.INT);
+      this.min = min;
+      this.max = max;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return RandomData.getRandomInt(context.random(), min, max);
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(RandomData.getRandomInt(context.random(), min, max));
+    }
+
+    @Override
+    public long nextLong(GeneratorContext context) {
+      return RandomData.getRandomInt(context.random(), min, max);
+    }
+
+    @Override
+    public void fillInts(GeneratorContext context, int[] values, int count) {
+      SplittableRandom random = context.random();
+      if (max < Integer.MAX_VALUE) {
+        int bound = max + 1;
+        for (int i = 0; i < count; i++) {
+          values[i] = random.nextInt(min, bound);
+        }
+      } else {
+        for (int i = 0; i < count; i++) {
+          values[i] = (int) random.nextLong(min, max + 1L);
+        }
+      }
+    }
+  }
+
+  static final class RandomLong extends FieldGenerator {
+    private final long min;
+    private final long max;
+
+    RandomLong(long min, long max) {
+      super(Type.LONG);
+      this.min = min;
+      this.max = max;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return RandomData.getRandomLong(context.random(), min, max);
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(RandomData.getRandomLong(context.random(), min, max));
+    }
+
+    @Override
+    public long nextLong(GeneratorContext context) {
+      return RandomData.getRandomLong(context.random(), min, max);
+    }
+
+    @Override
+    public void fillLongs(GeneratorContext context, long[] values, int count) {
+      SplittableRandom random = context.random();
+      for (int i = 0; i < count; i++) {
+        values[i] = RandomData.getRandomLong(random, min, max);
+      }
+    }
+  }
+
+  static final class RandomDouble extends FieldGenerator {
+    private final double min;
+    private final double max;
+
+    RandomDouble(double min, double max) {
+      super(Type.DOUBLE);
+      this.min = min;
+      this.max = max;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return RandomData.getRandomDouble(context.random(), min, max);
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(RandomData.getRandomDouble(context.random(), min, max));
+    }
+
+    @Override
+    public double nextDouble(GeneratorContext context) {
+      return RandomData.getRandomDouble(context.random(), min, max);
+    }
+
+    @Override
+    public void fillDoubles(GeneratorContext context, double[] values, int count) {
+      SplittableRandom random = context.random();
+      for (int i = 0; i < count; i++) {
+        values[i] = RandomData.getRandomDouble(random, min, max);
+      }
+    }
+  }
+
+  // zipf(n, s): ranks 1..n, rank k drawn in proportion to 1/k^s
+  static final class Zipf extends FieldGenerator {
+    private final ZipfSampler sampler;
+
+    Zipf(long n, double exponent) {
+      super(Type.LONG);
+      this.sampler = new ZipfSampler(n, exponent);
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return sampler.next(context.random());
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(sampler.next(context.random()));
+    }
+
+    @Override
+    public long nextLong(GeneratorContext context) {
+      return sampler.next(context.random());
+    }
+
+    @Override
+    public void fillLongs(GeneratorContext context, long[] values, int count) {
+      SplittableRandom random = context.random();
+      for (int i = 0; i < count; i++) {
+        values[i] = sampler.next(random);
+      }
+    }
+  }
+
+  static final class Normal extends FieldGenerator {
+    private final double mean;
+    private final double sigma;
+
+    Normal(double mean, double sigma) {
+      super(Type.DOUBLE);
+      this.mean = mean;
+      this.sigma = sigma;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return RandomData.getRandomNormal(context.random(), mean, sigma);
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(RandomData.getRandomNormal(context.random(), mean, sigma));
+    }
+
+    @Override
+    public double nextDouble(GeneratorContext context) {
+      return RandomData.getRandomNormal(context.random(), mean, sigma);
+    }
+
+    @Override
+    public void fillDoubles(GeneratorContext context, double[] values, int count) {
+      SplittableRandom random = context.random();
+      for (int i = 0; i < count; i++) {
+        values[i] = RandomData.getRandomNormal(random, mean, sigma);
+      }
+    }
+  }
+
+  static final class Exponential extends FieldGenerator {
+    private final double lambda;
+
+    Exponential(double lambda) {
+      super(Type.DOUBLE);
+      this.lambda = lambda;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return RandomData.getRandomExponential(context.random(), lambda);
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(RandomData.getRandomExponential(context.random(), lambda));
+    }
+
+    @Override
+    public double nextDouble(GeneratorContext context) {
+      return RandomData.getRandomExponential(context.random(), lambda);
+    }
+
+    @Override
+    public void fillDoubles(GeneratorContext context, double[] values, int count) {
+      SplittableRandom random = context.random();
+      for (int i = 0; i < count; i++) {
+        values[i] = RandomData.getRandomExponential(random, lambda);
+      }
+    }
+  }
+
+  // random(a, b, c) and weighted(a:5, b:1): options are parsed once and held as UTF-8 text and as
+  // JSON strings, so a value is a random index and an array copy; weighted options draw the index
+  // from an alias table
+  static final class Choice extends FieldGenerator {
+    private final String[] options;
+    private final byte[][] text;
+    private final byte[][] json;
+    private final AliasTable weights;
+
+    Choice(String[] options) {
+      this(options, null);
+    }
+
+    Choice(String[] options, AliasTable weights) {
+      super(Type.STRING);
+      if (options.length == 0) {
+        throw new IllegalArgumentException("random() needs at least one option");
+      }
+      if (weights != null && weights.size() != options.length) {
+        throw new IllegalArgumentException("one weight per option");
+      }
+      this.options = options;
+      this.weights = weights;
+      this.text = new byte[options.length][];
+      this.json = new byte[options.length][];
+      for (int i = 0; i < options.length; i++) {
+        text[i] = options[i].getBytes(StandardCharsets.UTF_8);
+        json[i] = jsonString(options[i]);
+      }
+    }
+
+    String[] options() {
+      return options;
+    }
+
+    byte[] text(int index) {
+      return text[index];
+    }
+
+    byte[] json(int index) {
+      return json[index];
+    }
+
+    int nextIndex(GeneratorContext context) {
+      return weights != null ? weights.next(context.random()) : context.random().nextInt(options.length);
+    }
+
+    void fillIndexes(GeneratorContext context, int[] indexes, int count) {
+      SplittableRandom random = context.random();
+      if (weights != null) {
+        for (int i = 0; i < count; i++) {
+          indexes[i] = weights.next(random);
+        }
+        return;
+      }
+      for (int i = 0; i < count; i++) {
+        indexes[i] = random.nextInt(options.length);
+      }
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return options[nextIndex(context)];
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(text[nextIndex(context)]);
+    }
+
+    @Override
+    public void writeJson(GeneratorContext context, RecordBuffer out) {
+      out.append(json[nextIndex(context)]);
+    }
+  }
+
+  static final class Alpha extends FieldGenerator {
+    private final int length;
+
+    Alpha(int length) {
+      super(Type.STRING);
+      this.length = length;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return RandomData.getNextRandomAlpha(context.random(), length);
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      RandomData.appendRandomAlpha(context.random(), length, out);
+    }
+  }
+
+  static final class AlphaNumeric extends FieldGenerator {
+    private final int length;
+
+    AlphaNumeric(int length) {
+      super(Type.STRING);
+      this.length = length;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return RandomData.getNextRandomAlphaNumeric(context.random(), length);
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      RandomData.appendRandomAlphaNumeric(context.random(), length, out);
+    }
+  }
+
+  static final class Uuid extends FieldGenerator {
+    Uuid() {
+      super(Type.STRING);
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return RandomData.getRandomUuid(context.random()).toString();
+    }
+  }
+
+  /**
+   * A seq or datetime_seq, numbered from the record index: draw n of record i is i times the draws
+   * per record plus n.
+   */
+  interface RecordSequence {
+    void setDrawsPerRecord(long draws);
+  }
+
+  // This worker's place in the generator's sequence for the current chunk: the chunk's first
+  // record, the values drawn one at a time and the columns filled so far
+  private static long[] sequencePosition(GeneratorContext context, FieldGenerator generator) {
+    long[] position = (long[]) context.getLocal(generator);
+    if (position == null) {
+      position = new long[3];
+      context.putLocal(generator, position);
+    } else if (position[0] == context.firstRecord()) {
+      return position;
+    }
+    position[0] = context.firstRecord();
+    position[1] = 0;
+    position[2] = 0;
+    return position;
+  }
+
+  // Next value of the generator's sequence. Draws are counted from the first record of the chunk,
+  // so the values depend on the record index only, not on the worker or thread count.
+  static long nextInSequence(GeneratorContext context, FieldGenerator generator, long start, long drawsPerRecord) {
+    long[] position = sequencePosition(context, generator);
+    return start + position[0] * drawsPerRecord + position[1]++;
+  }
+
+  // The values of the chunk's first rows as one column; the n-th column filled in a chunk gets draw
+  // n of each record, as when the records are written one at a time
+  static void fillSequence(GeneratorContext context, FieldGenerator generator, long start, long drawsPerRecord,
+                           long[] values, int count) {
+    long[] position = sequencePosition(context, generator);
+    long draw = position[2]++;
+    for (int i = 0; i < count; i++) {
+      values[i] = start + (position[0] + i) * drawsPerRecord + draw;
+    }
+  }
+
+  // Tell every seq and datetime_seq of the template how many values a record draws from it, e.g.
+  // three for a seq in an array of three elements
+  static void countSequenceDraws(FieldGenerator template) {
+    Map<FieldGenerator, Long> draws = new IdentityHashMap<>();
+    countSequenceDraws(template, 1, draws);
+    draws.forEach((sequence, count) -> ((RecordSequence) sequence).setDrawsPerRecord(count));
+  }
+
+  private static void countSequenceDraws(FieldGenerator node, long times, Map<FieldGenerator, Long> draws) {
+    if (node instanceof RecordSequence) {
+      draws.merge(node, times, Long::sum);
+    } else if (node instanceof ObjectNode) {
+      for (FieldGenerator value : ((ObjectNode) node).values) {
+        countSequenceDraws(value, times, draws);
+      }
+    } else if (node instanceof ArrayNode) {
+      ArrayNode array = (ArrayNode) node;
+      for (FieldGenerator element : array.elements) {
+        countSequenceDraws(element, times * array.size, draws);
+      }
+    } else if (node instanceof Concat) {
+      for (FieldGenerator part : ((Concat) node).parts) {
+        countSequenceDraws(part, times, draws);
+      }
+    } else if (node instanceof Quoted) {
+      countSequenceDraws(((Quoted) node).value, times, draws);
+    } else if (node instanceof Upper) {
+      countSequenceDraws(((Upper) node).value, times, draws);
+    } else if (node instanceof Lower) {
+      countSequenceDraws(((Lower) node).value, times, draws);
+    } else if (node instanceof Unique) {
+      Map<FieldGenerator, Long> inner = new IdentityHashMap<>();
+      countSequenceDraws(((Unique) node).value, times, inner);
+      ((Unique) node).sequences = inner.keySet().toArray(new FieldGenerator[0]);
+      inner.forEach((sequence, count) -> draws.merge(sequence, count, Long::sum));
+    } else if (node instanceof NestedJson) {
+      countSequenceDraws(((NestedJson) node).template, times, draws);
+    }
+  }
+
+  // seq or seq(start): start plus the record index, whatever the thread count
+  static final class Sequence extends FieldGenerator implements RecordSequence {
+    private final long start;
+    private long drawsPerRecord = 1;
+
+    Sequence(long start) {
+      super(Type.LONG);
+      this.start = start;
+    }
+
+    @Override
+    public void setDrawsPerRecord(long draws) {
+      drawsPerRecord = draws;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return nextLong(context);
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(nextLong(context));
+    }
+
+    @Override
+    public long nextLong(GeneratorContext context) {
+      return nextInSequence(context, this, start, drawsPerRecord);
+    }
+
+    @Override
+    public void fillLongs(GeneratorContext context, long[] values, int count) {
+      fillSequence(context, this, start, drawsPerRecord, values, count);
+    }
+  }
+
+  // ref(template.field): a key saved by another run, drawn uniformly
+  static final class Ref extends FieldGenerator {
+    private final KeyFile keys;
+
+    Ref(KeyFile keys) {
+      super(Type.LONG);
+      this.keys = keys;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return nextLong(context);
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(nextLong(context));
+    }
+
+    @Override
+    public long nextLong(GeneratorContext context) {
+      return keys.get(context.random().nextLong(keys.size()));
+    }
+  }
+
+  // A key field of a run with --export-keys; every value is also saved for ref(...)
+  static final class ExportedKey extends FieldGenerator {
+    private final FieldGenerator value;
+    private final KeyFile.Writer keys;
+
+    ExportedKey(FieldGenerator value, KeyFile.Writer keys) {
+      super(value.getType());
+      this.value = value;
+      this.keys = keys;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      long key = nextLong(context);
+      return getType() == Type.INT ? (Object) (int) key : (Object) key;
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append(nextLong(context));
+    }
+
+    @Override
+    public long nextLong(GeneratorContext context) {
+      long key = value.nextLong(context);
+      keys.add(context, key);
+      return key;
+    }
+  }
+
+  // This worker's formatted-minute cache of a datetime field
+  static TimestampFormat.Cache timestampCache(GeneratorContext context, TimestampFormat format) {
+    TimestampFormat.Cache cache = (TimestampFormat.Cache) context.getLocal(format);
+    if (cache == null) {
+      cache = format.newCache();
+      context.putLocal(format, cache);
+    }
+    return cache;
+  }
+
+  // Datetime generators, whose values columnar outputs store as instants instead of text
+  interface Timestamps {
+    long nextEpochMillis(GeneratorContext context);
+
+    ZoneId zone();
+
+    // Write an instant the way the generator formats its values
+    void writeText(GeneratorContext context, long epochMillis, RecordBuffer out);
+
+    default void fillEpochMillis(GeneratorContext context, long[] values, int count) {
+      for (int i = 0; i < count; i++) {
+        values[i] = nextEpochMillis(context);
+      }
+    }
+  }
+
+  // datetime(now[+/-offset], format, zone[, unit])
+  static final class NowDateTime extends FieldGenerator implements Timestamps {
+    private final TimestampFormat format;
+    private final ChronoUnit unit;
+    private final int offset;
+
+    NowDateTime(TimestampFormat format, ChronoUnit unit, int offset) {
+      super(Type.STRING);
+      this.format = format;
+      this.unit = unit;
+      this.offset = offset;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return timestampCache(context, format).format(nextEpochMillis(context));
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      timestampCache(context, format).write(nextEpochMillis(context), out);
+    }
+
+    @Override
+    public ZoneId zone() {
+      return format.formatter().getZone();
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, long epochMillis, RecordBuffer out) {
+      timestampCache(context, format).write(epochMillis, out);
+    }
+
+    // Calendar offsets (days, months, years) depend on the zone, so they are resolved once per second
+    @Override
+    public long nextEpochMillis(GeneratorContext context) {
+      long now = System.currentTimeMillis();
+      if (offset == 0) {
+        return now;
+      }
+      if (unit.isTimeBased()) {
+        return now + offset * unit.getDuration().toMillis();
+      }
+      long[] shift = (long[]) context.getLocal(this);
+      if (shift == null) {
+        shift = new long[] {Long.MIN_VALUE, 0};
+        context.putLocal(this, shift);
+      }
+      long second = Math.floorDiv(now, 1000L);
+      if (shift[0] != second) {
+        Instant instant = Instant.ofEpochSecond(second);
+        shift[0] = second;
+        shift[1] = ZonedDateTime.ofInstant(instant, format.formatter().getZone()).plus(offset, unit)
+            .toInstant().toEpochMilli() - instant.toEpochMilli();
+      }
+      return now + shift[1];
+    }
+  }
+
+  // datetime_seq(start, end, format, zone, unit): start plus one unit per value, wrapping after end
+  static final class DateTimeSequence extends FieldGenerator implements Timestamps, RecordSequence {
+    private final ZonedDateTime start;
+    private final long startMillis;
+    private final long steps;
+    private final TimestampFormat format;
+    private final ChronoUnit unit;
+    private long drawsPerRecord = 1;
+
+    DateTimeSequence(ZonedDateTime start, ZonedDateTime end, TimestampFormat format, ChronoUnit unit) {
+      super(Type.STRING);
+      this.start = start;
+      this.startMillis = start.toInstant().toEpochMilli();
+      this.steps = end.isBefore(start) ? Long.MAX_VALUE : unit.between(start, end) + 1;
+      this.format = format;
+      this.unit = unit;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return timestampCache(context, format).format(nextEpochMillis(context));
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      timestampCache(context, format).write(nextEpochMillis(context), out);
+    }
+
+    @Override
+    public ZoneId zone() {
+      return format.formatter().getZone();
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, long epochMillis, RecordBuffer out) {
+      timestampCache(context, format).write(epochMillis, out);
+    }
+
+    @Override
+    public void setDrawsPerRecord(long draws) {
+      drawsPerRecord = draws;
+    }
+
+    @Override
+    public long nextEpochMillis(GeneratorContext context) {
+      return epochMillis(nextInSequence(context, this, 0, drawsPerRecord));
+    }
+
+    @Override
+    public void fillEpochMillis(GeneratorContext context, long[] values, int count) {
+      fillSequence(context, this, 0, drawsPerRecord, values, count);
+      for (int i = 0; i < count; i++) {
+        values[i] = epochMillis(values[i]);
+      }
+    }
+
+    private long epochMillis(long draw) {
+      long step = draw % steps;
+      if (unit.isTimeBased()) {
+        return startMillis + step * unit.getDuration().toMillis();
+      }
+      return start.plus(step, unit).toInstant().toEpochMilli();
+    }
+  }
+
+  // datetime, date, datetime:simple(...) and date(...): uniform epoch millis in [min, max)
+  static final class RandomDateTime extends FieldGenerator implements Timestamps {
+    private final long min;
+    private final long max;
+    private final DateTimeFormatter formatter;
+
+    RandomDateTime(long min, long max, DateTimeFormatter formatter) {
+      super(Type.STRING);
+      this.min = min;
+      this.max = max;
+      this.formatter = formatter;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return RandomData.getRandomDateTime(context.random(), min, max, formatter);
+    }
+
+    @Override
+    public long nextEpochMillis(GeneratorContext context) {
+      return RandomData.getRandomEpochMillis(context.random(), min, max);
+    }
+
+    @Override
+    public ZoneId zone() {
+      return formatter.getZone();
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, long epochMillis, RecordBuffer out) {
+      out.appendUtf8(formatter.format(Instant.ofEpochMilli(epochMillis)));
+    }
+  }
+
+  // unique(expr): re-draws expr until it gives a value not generated before in the run; values are
+  // compared by a 64-bit fingerprint of their text, or of the number for int and long expressions.
+  // Which worker draws a value first decides which record re-draws it, so with several threads the
+  // output is not fixed by the seed.
+  static final class Unique extends FieldGenerator {
+    static final int MAX_DRAWS = 1000;
+
+    private final FieldGenerator value;
+    // seq and datetime_seq generators inside value, set by countSequenceDraws
+    private FieldGenerator[] sequences = new FieldGenerator[0];
+    // Bloom filter size and the number of values it is sized for; 0 bytes keeps an exact set
+    private long bloomBytes;
+    private long expectedValues;
+
+    Unique(FieldGenerator value) {
+      super(value.getType());
+      this.value = value;
+    }
+
+    void useBloomFilter(long bytes, long expected) {
+      bloomBytes = bytes;
+      expectedValues = expected;
+    }
+
+    /**
+     * Values seen and re-draws of one run, shared by its workers.
+     */
+    static final class State {
+      final FingerprintSet seen;
+      final LongAdder redraws = new LongAdder();
+
+      private State(FingerprintSet seen) {
+        this.seen = seen;
+      }
+    }
+
+    // The run's state, from the shared map once per worker
+    State state(GeneratorContext context) {
+      State state = (State) context.getLocal(this);
+      if (state == null) {
+        state = (State) context.shared().computeIfAbsent(this, k -> new State(bloomBytes > 0
+            ? FingerprintSet.bloom(bloomBytes, expectedValues) : FingerprintSet.exact()));
+        context.putLocal(this, state);
+      }
+      return state;
+    }
+
+    private boolean numeric() {
+      return getType() == Type.INT || getType() == Type.LONG;
+    }
+
+    // Positions of the sequences inside value before a draw, or null if there are none
+    private long[] mark(GeneratorContext context) {
+      if (sequences.length == 0) {
+        return null;
+      }
+      long[] marks = new long[sequences.length];
+      for (int i = 0; i < sequences.length; i++) {
+        marks[i] = sequencePosition(context, sequences[i])[1];
+      }
+      return marks;
+    }
+
+    // A rejected value gives its sequence numbers back, so the record keeps its own
+    private void reset(GeneratorContext context, long[] marks) {
+      if (marks != null) {
+        for (int i = 0; i < sequences.length; i++) {
+          sequencePosition(context, sequences[i])[1] = marks[i];
+        }
+      }
+    }
+
+    // Whether a drawn value is new; gives up once the values seem to be used up
+    private boolean accept(State state, long fingerprint, int draw) {
+      if (state.seen.add(fingerprint)) {
+        return true;
+      }
+      state.redraws.increment();
+      if (draw == MAX_DRAWS) {
+        throw new IllegalStateException("unique(...) drew " + MAX_DRAWS
+            + " values in a row that were already generated; the expression has run out of values");
+      }
+      return false;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      if (numeric()) {
+        long key = nextLong(context);
+        return getType() == Type.INT ? (Object) (int) key : (Object) key;
+      }
+      State state = state(context);
+      long[] marks = mark(context);
+      for (int draw = 1; ; draw++) {
+        Object next = value.generate(context);
+        byte[] text = String.valueOf(next).getBytes(StandardCharsets.UTF_8);
+        if (accept(state, FingerprintSet.fingerprint(text, 0, text.length), draw)) {
+          return next;
+        }
+        reset(context, marks);
+      }
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      if (numeric()) {
+        out.append(nextLong(context));
+        return;
+      }
+      State state = state(context);
+      long[] marks = mark(context);
+      int start = out.size();
+      for (int draw = 1; ; draw++) {
+        value.writeText(context, out);
+        if (accept(state, FingerprintSet.fingerprint(out.array(), start, out.size()), draw)) {
+          return;
+        }
+        out.setSize(start);
+        reset(context, marks);
+      }
+    }
+
+    @Override
+    public long nextLong(GeneratorContext context) {
+      State state = state(context);
+      long[] marks = mark(context);
+      for (int draw = 1; ; draw++) {
+        long next = value.nextLong(context);
+        if (accept(state, FingerprintSet.mix(next), draw)) {
+          return next;
+        }
+        reset(context, marks);
+      }
+    }
+  }
+
+  static final class Quoted extends FieldGenerator {
+    private final FieldGenerator value;
+
+    Quoted(FieldGenerator value) {
+      super(Type.STRING);
+      this.value = value;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return "\"" + value.generate(context) + "\"";
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      out.append('"');
+      value.writeText(context, out);
+      out.append('"');
+    }
+  }
+
+  static final class Concat extends FieldGenerator {
+    private final FieldGenerator[] parts;
+
+    Concat(FieldGenerator[] parts) {
+      super(Type.STRING);
+      this.parts = parts;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      StringBuilder builder = new StringBuilder();
+      for (FieldGenerator part : parts) {
+        builder.append(part.generate(context));
+      }
+      return builder.toString();
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      for (FieldGenerator part : parts) {
+        part.writeText(context, out);
+      }
+    }
+  }
+
+  static final class Upper extends FieldGenerator {
+    private final FieldGenerator value;
+
+    Upper(FieldGenerator value) {
+      super(Type.STRING);
+      this.value = value;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return value.generate(context).toString().toUpperCase();
+    }
+  }
+
+  static final class Lower extends FieldGenerator {
+    private final FieldGenerator value;
+
+    Lower(FieldGenerator value) {
+      super(Type.STRING);
+      this.value = value;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return value.generate(context).toString().toLowerCase();
+    }
+  }
+
+  // json({...}, count, nested): embedded template compiled once with the enclosing template and
+  // written as nested JSON; each call generates one value
+  static final class NestedJson extends FieldGenerator {
+    private final FieldGenerator template;
+
+    NestedJson(FieldGenerator template) {
+      super(template.getType());
+      this.template = template;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      return template.generate(context);
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      template.writeJson(context, out);
+    }
+
+    @Override
+    public void writeJson(GeneratorContext context, RecordBuffer out) {
+      template.writeJson(context, out);
+    }
+  }
+
+  static final class ObjectNode extends FieldGenerator {
+    private final String[] names;
+    private final byte[][] jsonNames;
+    private final FieldGenerator[] values;
+
+    ObjectNode(String[] names, FieldGenerator[] values) {
+      super(Type.OBJECT);
+      this.names = names;
+      this.values = values;
+      this.jsonNames = new byte[names.length][];
+      for (int i = 0; i < names.length; i++) {
+        jsonNames[i] = jsonString(names[i]);
+      }
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      JsonObject out = new JsonObject();
+      for (int i = 0; i < names.length; i++) {
+        out.add(names[i], toJsonElement(context, values[i]));
+      }
+      return out;
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      writeJson(context, out);
+    }
+
+    @Override
+    public void writeJson(GeneratorContext context, RecordBuffer out) {
+      out.append('{');
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) {
+          out.append(',');
+        }
+        out.append(jsonNames[i]).append(':');
+        values[i].writeJson(context, out);
+      }
+      out.append('}');
+    }
+  }
+
+  // Array elements are repeated nestedArraySize times
+  static final class ArrayNode extends FieldGenerator {
+    private final FieldGenerator[] elements;
+    private final int size;
+
+    ArrayNode(FieldGenerator[] elements, int size) {
+      super(Type.ARRAY);
+      this.elements = elements;
+      this.size = size;
+    }
+
+    @Override
+    public Object generate(GeneratorContext context) {
+      JsonArray out = new JsonArray();
+      for (int i = 1; i <= size; i++) {
+        for (FieldGenerator element : elements) {
+          out.add(toJsonElement(context, element));
+        }
+      }
+      return out;
+    }
+
+    @Override
+    public void writeText(GeneratorContext context, RecordBuffer out) {
+      writeJson(context, out);
+    }
+
+    @Override
+    public void writeJson(GeneratorContext context, RecordBuffer out) {
+      out.append('[');
+      boolean first = true;
+      for (int i = 1; i <= size; i++) {
+        for (FieldGenerator element : elements) {
+          if (!first) {
+            out.append(',');
+          }
+          element.writeJson(context, out);
+          first = false;
+        }
+      }
+      out.append(']');
+    }
+  }
+
+}
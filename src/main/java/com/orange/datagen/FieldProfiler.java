@@ -0,0 +1,93 @@
+package com.orange.datagen;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Attributes generation time and allocated bytes to template field paths such as
+ * {@code $.nested[].datetime}, on the records a {@link GeneratorContext} samples. Times and bytes
+ * are inclusive: an object's figures contain its fields' and the cost of measuring them.
+ */
+public final class FieldProfiler {
+
+  public static final String ROOT = "$";
+
+  private final Map<String, Stats> stats = new LinkedHashMap<>();
+  private final com.sun.management.ThreadMXBean threads;
+
+  public FieldProfiler() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    com.sun.management.ThreadMXBean threads = null;
+    if (bean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+      threads = (com.sun.management.ThreadMXBean) bean;
+      threads.setThreadAllocatedMemoryEnabled(true);
+    }
+    this.threads = threads;
+  }
+
+  // Wrap every field of the compiled template so sampled records are measured
+  public FieldGenerator instrument(FieldGenerator root) {
+    return FieldGenerators.instrument(root, ROOT, this);
+  }
+
+  synchronized Stats stats(String path) {
+    return stats.computeIfAbsent(path, k -> new Stats());
+  }
+
+  // Bytes allocated by the current thread so far, or -1 if the JVM cannot tell
+  long allocatedBytes() {
+    return threads == null ? -1 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // Field paths by total time, with their share of the record time
+  public synchronized JsonArray summary() {
+    List<Map.Entry<String, Stats>> entries = new ArrayList<>(stats.entrySet());
+    entries.sort(Comparator.comparingLong((Map.Entry<String, Stats> e) -> e.getValue().nanos.sum()).reversed());
+    Stats root = stats.get(ROOT);
+    double recordNanos = root == null ? 0 : root.nanos.sum();
+    JsonArray fields = new JsonArray();
+    for (Map.Entry<String, Stats> entry : entries) {
+      long samples = entry.getValue().samples.sum();
+      if (samples == 0) {
+        continue;
+      }
+      long nanos = entry.getValue().nanos.sum();
+      JsonObject field = new JsonObject();
+      field.addProperty("path", entry.getKey());
+      field.addProperty("samples", samples);
+      field.addProperty("nanosPerValue", nanos / samples);
+      if (threads != null) {
+        field.addProperty("bytesPerValue", entry.getValue().bytes.sum() / samples);
+      }
+      field.addProperty("share", recordNanos > 0 ? Math.round(1000 * nanos / recordNanos) / 10.0 : 0);
+      fields.add(field);
+    }
+    return fields;
+  }
+
+  /**
+   * Totals of one field path across all workers.
+   */
+  static final class Stats {
+    final LongAdder samples = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+
+    void add(long nanos, long bytes) {
+      this.samples.increment();
+      this.nanos.add(nanos);
+      this.bytes.add(bytes);
+    }
+  }
+
+}
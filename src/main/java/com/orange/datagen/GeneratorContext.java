@@ -0,0 +1,114 @@
+package com.orange.datagen;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-worker generation state. Each worker thread owns one context, so generators never share
+ * mutable random state across threads. Contexts of the same run also share a concurrent map for
+ * state that must be coordinated across workers.
+ */
+public final class GeneratorContext {
+
+  private SplittableRandom random;
+  private final ConcurrentMap<Object, Object> shared;
+  private final Map<Object, Object> local = new IdentityHashMap<>();
+  private final List<AutoCloseable> closeables = new ArrayList<>();
+  private long firstRecord;
+  private int sampleInterval;
+  private int untilSample;
+  private boolean sampling;
+
+  public GeneratorContext(long seed) {
+    this(new SplittableRandom(seed));
+  }
+
+  public GeneratorContext(SplittableRandom random) {
+    this(random, new ConcurrentHashMap<>());
+  }
+
+  public GeneratorContext(SplittableRandom random, ConcurrentMap<Object, Object> shared) {
+    this.random = random;
+    this.shared = shared;
+  }
+
+  // A context with an arbitrary seed
+  public static GeneratorContext unseeded() {
+    return new GeneratorContext(new SplittableRandom());
+  }
+
+  public SplittableRandom random() {
+    return random;
+  }
+
+  // Restart the random stream at a chunk of a run starting at the given record index; local and
+  // shared state are kept
+  public void reseed(long seed, long firstRecord) {
+    random = new SplittableRandom(seed);
+    this.firstRecord = firstRecord;
+  }
+
+  // Index of the first record of the current chunk
+  public long firstRecord() {
+    return firstRecord;
+  }
+
+  // State owned by this worker, keyed by generator
+  public Object getLocal(Object key) {
+    return local.get(key);
+  }
+
+  public void putLocal(Object key, Object value) {
+    local.put(key, value);
+  }
+
+  // Close a resource of this worker, such as a compressor holding native memory, with the context
+  public void onClose(AutoCloseable resource) {
+    closeables.add(resource);
+  }
+
+  // Called by the thread that owns the context once it has generated its last chunk
+  public void close() {
+    try {
+      for (AutoCloseable resource : closeables) {
+        resource.close();
+      }
+    } catch (Exception e) {
+      throw new IllegalStateException("could not release a worker resource", e);
+    } finally {
+      closeables.clear();
+    }
+  }
+
+  // Sample every n-th record of this worker for field profiling; 0 turns sampling off
+  public void setSampleInterval(int records) {
+    sampleInterval = records;
+    untilSample = records;
+    sampling = false;
+  }
+
+  // Call before each record; decides whether the record is sampled
+  public void startRecord() {
+    if (sampleInterval > 0 && --untilSample == 0) {
+      untilSample = sampleInterval;
+      sampling = true;
+    } else {
+      sampling = false;
+    }
+  }
+
+  public boolean sampling() {
+    return sampling;
+  }
+
+  // State shared by all workers of the run, keyed by generator
+  public ConcurrentMap<Object, Object> shared() {
+    return shared;
+  }
+
+}
@@ -0,0 +1,215 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running generator behind a local HTTP endpoint, so that many small datasets share one warm
+ * JVM. {@code POST /generate?count=1000&seed=42&format=json} with the template as the request body
+ * streams the records back with chunked transfer encoding, one batch per write. Parsed templates
+ * are kept in a bounded LRU cache keyed by the SHA-256 of the template and compiled for each
+ * request, and requests run on a shared pool of worker threads, one thread per request.
+ */
+public final class GeneratorServer {
+
+  private static final Logger logger = LoggerFactory.getLogger(GeneratorServer.class);
+
+  public static final int DEFAULT_PORT = 8080;
+  public static final int DEFAULT_CACHE_SIZE = 256;
+
+  private final HttpServer server;
+  private final ExecutorService executorService;
+  private final Cache<String, JsonElement> templates;
+
+  public GeneratorServer(InetSocketAddress address, int threadCount, int cacheSize) throws IOException {
+    this.templates = CacheBuilder.newBuilder().maximumSize(cacheSize).recordStats().build();
+    this.executorService = Executors.newFixedThreadPool(threadCount);
+    this.server = HttpServer.create(address, 0);
+    server.setExecutor(executorService);
+    server.createContext("/generate", this::generate);
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executorService.shutdownNow();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public CacheStats cacheStats() {
+    return templates.stats();
+  }
+
+  private void generate(HttpExchange exchange) throws IOException {
+    try {
+      if (!exchange.getRequestMethod().equals("POST")) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        respond(exchange, 405, "POST the template to /generate");
+        return;
+      }
+      Request request;
+      try {
+        request = prepare(exchange);
+      } catch (RuntimeException | ExecutionException e) {
+        // template and parameter errors; the cache wraps those of the compiler
+        Throwable cause = e instanceof UncheckedExecutionException || e instanceof ExecutionException
+            ? e.getCause() : e;
+        respond(exchange, 400, String.valueOf(cause.getMessage()));
+        return;
+      }
+      exchange.getResponseHeaders().set("Content-Type", request.contentType + "; charset=utf-8");
+      exchange.getResponseHeaders().set("X-Seed", String.valueOf(request.seed));
+      // a length of 0 selects chunked transfer encoding
+      exchange.sendResponseHeaders(200, 0);
+      stream(exchange.getResponseBody(), request.pipeline, request.count, request.header);
+    } catch (Exception e) {
+      // once the status is sent, closing without the final chunk tells the client the body is cut short
+      logger.warn("request failed", e);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private Request prepare(HttpExchange exchange) throws IOException, ExecutionException {
+    Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+    String template = new String(ByteStreams.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8);
+    Request request = new Request();
+    request.count = Long.parseLong(params.getOrDefault("count", "5"));
+    if (request.count < 0) {
+      throw new IllegalArgumentException("count must not be negative: " + request.count);
+    }
+    request.seed = params.containsKey("seed") ? Long.parseLong(params.get("seed"))
+        : ThreadLocalRandom.current().nextLong();
+    int nested = Integer.parseInt(params.getOrDefault("nested", "0"));
+    int batchSize = Integer.parseInt(params.getOrDefault("batch", String.valueOf(RecordPipeline.DEFAULT_BATCH_SIZE)));
+    FieldGenerator generator = compile(template, nested);
+    String format = params.getOrDefault("format", "json");
+    if (format.equals("json")) {
+      request.pipeline = new RecordPipeline(generator, 1, batchSize, RecordPipeline.DEFAULT_QUEUE_CAPACITY,
+          request.seed);
+      request.contentType = "application/x-ndjson";
+    } else if (format.equals("csv")) {
+      CsvRow row = new CsvRow(generator, params.getOrDefault("delimiter", ","));
+      RecordBuffer header = new RecordBuffer();
+      row.writeHeader(header);
+      header.append('\n');
+      request.header = header;
+      request.pipeline = new RecordPipeline(row::write, 1, batchSize, RecordPipeline.DEFAULT_QUEUE_CAPACITY,
+          request.seed);
+      request.contentType = "text/csv";
+    } else {
+      throw new IllegalArgumentException("format must be json or csv: " + format);
+    }
+    return request;
+  }
+
+  private void stream(OutputStream out, RecordPipeline pipeline, long count, RecordBuffer header) throws Exception {
+    if (header != null) {
+      header.writeTo(out);
+    }
+    pipeline.run(count, (batch, records) -> batch.writeTo(out));
+    out.close();
+  }
+
+  // Parsed once per template text, least recently used templates are dropped; the tree is compiled
+  // for each request, so that now-relative datetimes follow the clock
+  private FieldGenerator compile(String template, int nested) throws ExecutionException {
+    String key = Hashing.sha256().hashString(template, StandardCharsets.UTF_8).toString();
+    JsonElement parsed = templates.get(key, () -> new JsonParser().parse(
+        template.replace("DTM_RUNTIME", "2021-09-30T17:53:33.838+0000")));
+    return TemplateCompiler.compile(parsed, nested);
+  }
+
+  private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+    byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+  }
+
+  private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+    Map<String, String> params = new HashMap<>();
+    if (query != null) {
+      for (String pair : query.split("&")) {
+        int equals = pair.indexOf('=');
+        if (equals > 0) {
+          params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+              URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+        }
+      }
+    }
+    return params;
+  }
+
+  /**
+   * A validated request, ready to stream.
+   */
+  private static final class Request {
+    RecordPipeline pipeline;
+    RecordBuffer header;
+    String contentType;
+    long count;
+    long seed;
+  }
+
+  public static void main(String[] args) throws Exception {
+    ArgumentParser ap = ArgumentParsers.newFor(GeneratorServer.class.getSimpleName()).build().defaultHelp(true);
+    ap.addArgument("-p", "--port")
+        .required(false).help("port to listen on (default 8080)");
+    ap.addArgument("--host")
+        .required(false).help("address to bind (default 127.0.0.1)");
+    ap.addArgument("-x", "--threads")
+        .required(false).help("number of requests served at the same time (default: available processors)");
+    ap.addArgument("--cache")
+        .required(false).help("number of parsed templates to keep (default 256)");
+    Namespace ns = ap.parseArgs(args);
+
+    int port = ns.getString("port") != null ? Integer.parseInt(ns.getString("port")) : DEFAULT_PORT;
+    String host = ns.getString("host") != null ? ns.getString("host") : "127.0.0.1";
+    int threadCount = ns.getString("threads") != null ? Integer.parseInt(ns.getString("threads"))
+        : Runtime.getRuntime().availableProcessors();
+    int cacheSize = ns.getString("cache") != null ? Integer.parseInt(ns.getString("cache")) : DEFAULT_CACHE_SIZE;
+    GeneratorServer server = new GeneratorServer(new InetSocketAddress(host, port), threadCount, cacheSize);
+    server.start();
+    logger.info("serving POST /generate on {}:{} with {} threads", host, server.getPort(), threadCount);
+    Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    while (true) {
+      TimeUnit.DAYS.sleep(1);
+    }
+  }
+
+}
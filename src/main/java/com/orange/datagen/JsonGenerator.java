@@ -1,22 +1,29 @@
 package com.orange.datagen;
 
-import com.orange.datagen.util.Pair;
+import com.orange.datagen.util.RecordBuffer;
 import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Resources;
-import com.google.gson.*;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -26,230 +33,23 @@ import java.util.concurrent.*;
 public final class JsonGenerator {
 
   private static final Logger logger = LoggerFactory.getLogger(JsonGenerator.class);
-  private static int sequence = 1;
-  private static ZonedDateTime zonedTimeSequenceStart = null;
-  private static ZonedDateTime zonedTimeSequenceEnd = null;
-
-  // Generate a pair for a primitive data type
-  protected static Pair genPrimitives(JsonElement jsonElement, int arraySize) {
-    if (jsonElement.getAsJsonPrimitive().isBoolean()) {
-      return new Pair(RandomData.getRandomBoolean(), Boolean.class);
-    } else if (jsonElement.getAsJsonPrimitive().isString()) {
-      return evalFunction(jsonElement.toString(), arraySize);
-    } else if (jsonElement.getAsJsonPrimitive().isNumber()) {
-      return new Pair(RandomData.getRandomInt(), Integer.class);
-    } else if (jsonElement.isJsonNull()) {
-      return new Pair(null, null);
-    }
-    return new Pair(jsonElement.toString(), String.class);
-  }
-
-  private static ZonedDateTime addSubDateTime(ZonedDateTime dateTime, String part, int offset) {
-    switch(part) {
-      case "millisecond":
-        return dateTime.plusNanos(offset);
-      case "second":
-        return dateTime.plusSeconds(offset);
-      case "minute":
-        return  dateTime.plusMinutes(offset);
-      case "hour":
-        return dateTime.plusHours(offset);
-      case "day":
-        return dateTime.plusDays(offset);
-      case "month":
-        return dateTime.plusMonths(offset);
-      case "year":
-        return dateTime.plusYears(offset);
-      default:
-    }
-    return dateTime;
-  }
-
-  private static Pair evalFunction(String value, int arraySize) {
-    if (value.contains("(")) {
-      String subValue = value.substring(value.indexOf("(") + 1, value.lastIndexOf(")"));
-      String[] args = subValue.split(",");
-      if (value.startsWith("\"random(") || value.startsWith("random(")) {
-        return new Pair(RandomData.getNextRandomValue(args), String.class);
-      } else if (value.startsWith("\"json(") || value.startsWith(("json("))) {
-        String subJson = subValue.substring(0, subValue.lastIndexOf("}") + 1);
-        String[] jsonArgs = subValue.substring(subValue.lastIndexOf("}") + 2).split(",");
-        return new Pair(generateEvents(RandomData.stripBackslash(subJson), Long.parseLong(jsonArgs[0].trim()),
-            Integer.parseInt(jsonArgs[1].trim())).get(0), String.class);
-      } else if (value.startsWith("\"int(") || value.startsWith("int")) {
-        return new Pair(RandomData.getRandomInt(args), Integer.class);
-      } else if (value.startsWith("\"long(") || value.startsWith("long")) {
-        return new Pair(RandomData.getRandomLong(args), Long.class);
-      } else if (value.startsWith("\"double(") || value.startsWith("double")) {
-        return new Pair(RandomData.getRandomDouble(args), Double.class);
-      } else if (value.startsWith("\"datetime_seq(") || value.startsWith("datetime_seq(")) {
-        // args[0] - start datetime or now-offset, args[1] - end datetime or now
-        // args[2] - input date format
-        // args[3] - timezone id, eg: "America/Los_Angeles"
-        // args[4] - increment second/minute/hour/day/month/year
-        int incrementOffset = 1; // default increment value
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(args[2]);
-
-        // initialize start and end sequence datetime first
-        if (zonedTimeSequenceStart == null) {
-          zonedTimeSequenceStart = ZonedDateTime.now(ZoneId.of(args[3]));
-          zonedTimeSequenceEnd = ZonedDateTime.now(ZoneId.of(args[3]));
-        }
-        if (args[0].startsWith("now")) { // now or now-5 or now-10
-          String[] startOffset = args[0].split("-");
-          if (startOffset.length == 2) {
-            zonedTimeSequenceStart = addSubDateTime(ZonedDateTime.now(ZoneId.of(args[3])), args[3],
-                -1 * Integer.parseInt(startOffset[1]));
-          }
-        }
-
-        if (zonedTimeSequenceStart.isBefore(zonedTimeSequenceEnd)) {
-          zonedTimeSequenceStart = addSubDateTime(zonedTimeSequenceEnd, args[4], incrementOffset);
-        }
-        return new Pair(zonedTimeSequenceStart.format(formatter), String.class);
-      } else if (value.startsWith("\"datetime(") || value.startsWith("datetime(")) {
-        // args[0] - now+/-offset
-        // args[1] - input date format
-        // args[2] - timezone id, eg: "America/Los_Angeles"
-        // args[3] - increment second/minute/hour/day/month/year
-        ZonedDateTime zonedDateTime = ZonedDateTime.now(ZoneId.of(args[2]));
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(args[1]);
-        if (args[0].startsWith("now")) { // now or now+5 or now-10
-          if (args[0].contains("-")) {
-            String[] startOffset = args[0].split("-");
-            if (startOffset.length == 2) {
-              zonedDateTime = addSubDateTime(ZonedDateTime.now(ZoneId.of(args[2])), args[3],
-                  -1 * Integer.parseInt(startOffset[1]));
-            }
-          } else if (args[0].contains("+")) {
-            String[] startOffset = args[0].split("\\+");
-            if (startOffset.length == 2) {
-              zonedDateTime = addSubDateTime(ZonedDateTime.now(ZoneId.of(args[2])), args[3],
-                  Integer.parseInt(startOffset[1]));
-            }
-          }
-        }
-
-        return new Pair(zonedDateTime.format(formatter), String.class);
-      } else if (value.startsWith("\"datetime:simple(")) {
-        return new Pair(RandomData.getRandomDateTime(args, RandomData.datetimeFormat), String.class);
-      } else if (value.startsWith("\"date(")) {
-        return new Pair(RandomData.getRandomDateTime(args, RandomData.dateFormatDash), String.class);
-      } else if (value.startsWith("\"alpha(") || value.startsWith("alpha(")) {
-        return new Pair(RandomData.getNextRandomAlpha(Integer.parseInt(args[0])), String.class);
-      } else if (value.startsWith("\"alphanumeric(") || value.startsWith("alphanumeric(")) {
-        return new Pair(RandomData.getNextRandomAlphaNumeric(Integer.parseInt(args[0])), String.class);
-      } else if (value.startsWith("\"qs(") || value.startsWith("qs(")) {
-        int startIndex = value.indexOf("(") + 1;
-        int endIndex = value.lastIndexOf(")");
-        String p = value.substring(startIndex, endIndex);
-        return new Pair("\"" + evalFunction(p, arraySize).getFirst() + "\"", String.class);
-      } else if (value.startsWith("\"cat(") || value.startsWith("cat(")) {
-        StringBuilder builder = new StringBuilder();
-        int startIndex = value.indexOf("(") + 1;
-        int endIndex = value.lastIndexOf(")");
-        String p = value.substring(startIndex, endIndex);
-        for (String param : splitArgs(p, ',')) {
-          if (param.equals("SPACE")) { // HACK: for whitespace
-            builder.append(" ");
-          } else if (param.equals("COMMA")) { // for comma
-            builder.append(", ");
-          } else {
-            builder.append(evalFunction(param, arraySize).getFirst());
-          }
-        }
-        return new Pair(builder.toString(), String.class);
-      } else if (value.startsWith("\"seq(")) {
-        if (sequence == 1) {
-          int startIndex = value.indexOf("(") + 1;
-          int endIndex = value.lastIndexOf(")");
-          sequence = Integer.parseInt(value.substring(startIndex, endIndex));
-        }
-        return new Pair(sequence++, Integer.class);
-      } else if (value.startsWith("\"upper(") || value.startsWith("upper(")) {
-        int startIndex = value.indexOf("(") + 1;
-        int endIndex = value.lastIndexOf(")");
-        String p = value.substring(startIndex, endIndex);
-        return new Pair(evalFunction(p, arraySize).getFirst().toString().toUpperCase(), String.class);
-      } else if (value.startsWith("\"lower(") || value.startsWith("lower(")) {
-        int startIndex = value.indexOf("(") + 1;
-        int endIndex = value.lastIndexOf(")");
-        String p = value.substring(startIndex, endIndex);
-        return new Pair(evalFunction(p, arraySize).getFirst().toString().toLowerCase(), String.class);
-      } else {
-        // return the passed value as is
-        // logger.warn("invalid format, generated as is");
-        return new Pair(RandomData.stripQuotes(value), String.class);
-      }
-    } else {
-      switch (RandomData.stripQuotes(value)) {
-        case "int":
-          return new Pair(RandomData.getRandomInt(), Integer.class);
-        case "long":
-          return new Pair(RandomData.getRandomLong(), Long.class);
-        case "double":
-          return new Pair(RandomData.getRandomDouble(), Double.class);
-        case "datetime":
-          return new Pair(RandomData.getRandomDateTime(RandomData.dateFormatISO), String.class);
-        case "date":
-          return new Pair(RandomData.getRandomDateTime(RandomData.dateFormatDash), String.class);
-        case "alpha":
-          return new Pair(RandomData.getNextRandomAlpha(), String.class);
-        case "alphanumeric":
-          return new Pair(RandomData.getNextRandomAlphaNumeric(), String.class);
-        case "uuid":
-          return new Pair(UUID.randomUUID().toString(), String.class);
-        case "seq":
-          return new Pair(sequence++, Integer.class);
-        default:
-          return new Pair(RandomData.stripQuotes(value), String.class);
-      }
-    }
-  }
-
-  private static String[] splitArgs(String value, char delimiter) {
-    List<String> result = new ArrayList<>();
-    StringBuilder sb = new StringBuilder();
-    int nest = 0;
-    for (int i = 0; i < value.length(); ++i) {
-      char ch = value.charAt(i);
-      switch (ch) {
-        case ',':
-          if (nest == 0) {
-            result.add(sb.toString().trim());
-            sb.setLength(0);
-            continue;
-          }
-          break;
-        case '(':
-          ++nest;
-          break;
-        case ')':
-          --nest;
-          break;
-        default:
-      }
-      sb.append(ch);
-    }
-    result.add(sb.toString().trim());
-    return result.toArray(new String[result.size()]);
-  }
 
   public static Object generate(String template, int eventCount, int nestedArraySize) {
+    GeneratorContext context = GeneratorContext.unseeded();
     try {
-      JsonElement jsonElement = new JsonParser().parse(template);
-      if (jsonElement.isJsonArray()) {
-        return genRandomJsonArray(jsonElement.getAsJsonArray(), nestedArraySize);
-      } else if (jsonElement.isJsonObject()) {
-        JsonObject jsonObject = jsonElement.getAsJsonObject();
-        StringBuilder builder = new StringBuilder();
+      FieldGenerator generator = TemplateCompiler.compile(template, nestedArraySize);
+      RecordBuffer buffer = new RecordBuffer();
+      if (generator.getType() == FieldGenerator.Type.ARRAY) {
+        generator.writeJson(context, buffer);
+        return buffer;
+      } else if (generator.getType() == FieldGenerator.Type.OBJECT) {
         for (int i = 1; i <= eventCount; i++) {
-          builder.append(genRandomJsonObject(jsonObject, nestedArraySize));
+          generator.writeJson(context, buffer);
           if (i < eventCount) {
-            builder.append("\n");
+            buffer.append('\n');
           }
         }
-        return builder;
+        return buffer;
       }
     } catch (Exception e) {
       e.printStackTrace();
@@ -258,13 +58,20 @@ public final class JsonGenerator {
   }
 
   public static List<String> generateEvents(String template, long eventCount, int nestedArraySize) {
+    return generateEvents(GeneratorContext.unseeded(), template, eventCount, nestedArraySize);
+  }
+
+  public static List<String> generateEvents(GeneratorContext context, String template, long eventCount,
+                                            int nestedArraySize) {
     List<String> events = new ArrayList<>();
     try {
-      JsonElement jsonElement = new JsonParser().parse(template);
-      if (jsonElement.isJsonObject()) {
-        JsonObject jsonObject = jsonElement.getAsJsonObject();
+      FieldGenerator generator = TemplateCompiler.compile(template, nestedArraySize);
+      if (generator.getType() == FieldGenerator.Type.OBJECT) {
+        RecordBuffer buffer = new RecordBuffer();
         for (long i = 1; i <= eventCount; i++) {
-          events.add(genRandomJsonObject(jsonObject, nestedArraySize).toString());
+          buffer.reset();
+          generator.writeJson(context, buffer);
+          events.add(buffer.toString());
         }
       }
     } catch (Exception e) {
@@ -273,93 +80,387 @@ public final class JsonGenerator {
     return events;
   }
 
-  // Generate random json array to number of event count
-  private static JsonArray genRandomJsonArray(JsonArray jsonArray, int arraySize) {
-    JsonArray outArray = new JsonArray();
-    for (int i = 1; i <= arraySize; i++) {
-      for (JsonElement element : jsonArray) {
-        if (element.isJsonObject()) {
-          outArray.add(genRandomJsonObject(element.getAsJsonObject(), arraySize));
-        } else if (element.isJsonPrimitive()) {
-          Pair primitive = genPrimitives(element, arraySize);
-          if (primitive.getSecond() == Integer.class || primitive.getSecond() == Long.class ||
-              primitive.getSecond() == Double.class || primitive.getSecond() == Boolean.class) {
-            outArray.add((Number) primitive.getFirst());
-          } else if (primitive.getSecond() == String.class) {
-            outArray.add(primitive.getFirst().toString());
-          } else {
-            // TODO: extend for other custom types
-            // Throw error for now.
-            logger.error("invalid type, not supported");
-          }
-        }
-      }
+  // --rate, --profile and --duration, shared by the JSON and CSV generators
+  static void addRateArguments(ArgumentParser ap) {
+    ap.addArgument("--rate")
+        .required(false).help("emit events at this rate, e.g. 5000/s, 50k/s or 300/m; -n is then the total");
+    ap.addArgument("--profile")
+        .required(false).help("rate profile: constant, ramp:<duration> or burst:<factor>x:<duration>/<period>");
+    ap.addArgument("--duration")
+        .required(false).help("stop a rate-controlled run after this long, e.g. 30s, 10m or 2h");
+  }
+
+  // Pacer for a rate-controlled run, or null if --rate is not given
+  static Pacer pacer(Namespace ns) {
+    if (ns.getString("rate") == null) {
+      return null;
     }
-    return outArray;
+    RateProfile profile = RateProfile.parse(ns.getString("profile"), RateProfile.parseRate(ns.getString("rate")));
+    long limit = ns.getString("number") != null ? Long.parseLong(ns.getString("number")) : Long.MAX_VALUE;
+    long duration = ns.getString("duration") != null
+        ? (long) (RateProfile.parseSeconds(ns.getString("duration")) * 1e9) : Long.MAX_VALUE;
+    return new Pacer(profile, limit, duration);
   }
 
-  // Generate a single json object
-  private static JsonObject genRandomJsonObject(JsonObject jsonObject, int arraySize) {
-    JsonObject out = new JsonObject();
-    for (Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
-      if (entry.getValue().isJsonArray()) {
-        out.add(entry.getKey(), genRandomJsonArray(entry.getValue().getAsJsonArray(), arraySize));
-      } else if (entry.getValue().isJsonObject()) {
-        out.add(entry.getKey(), genRandomJsonObject(entry.getValue().getAsJsonObject(), arraySize));
-      } else if (entry.getValue().isJsonPrimitive()) {
-        Pair primitive = genPrimitives(entry.getValue(), arraySize);
-        if (primitive.getSecond() == Integer.class || primitive.getSecond() == Long.class ||
-            primitive.getSecond() == Double.class || primitive.getSecond() == Boolean.class) {
-          out.add(entry.getKey(), new Gson().toJsonTree(primitive.getFirst()));
-        } else if (primitive.getSecond() == String.class) {
-          out.addProperty(entry.getKey(), primitive.getFirst().toString());
-        } else {
-          // TODO: extend for other custom types
-          // Throw error for now.
-          logger.error("invalid type, not supported");
-        }
-      } else if (entry.getValue().isJsonNull()) {
-        out.add(entry.getKey(), null);
-      } else { // custom class type
-        if (entry.getValue().isJsonObject()) {
-          out.add(entry.getKey(), genRandomJsonObject(entry.getValue().getAsJsonObject(), arraySize));
-        }
+  static void logPacing(Pacer pacer, long written) {
+    double seconds = pacer.elapsedNanos() / 1e9;
+    logger.info("rate: target {}/s, achieved {}/s over {} s; pacing jitter mean {} ms, stddev {} ms, max {} ms",
+        String.format("%.1f", pacer.targetRate()), String.format("%.1f", written / seconds),
+        String.format("%.1f", seconds), String.format("%.3f", pacer.meanJitterMillis()),
+        String.format("%.3f", pacer.stdDevJitterMillis()), String.format("%.3f", pacer.maxJitterMillis()));
+  }
+
+  // --progress and --metrics
+  static void addMetricsArguments(ArgumentParser ap) {
+    ap.addArgument("--progress")
+        .required(false).help("seconds between progress lines on stderr, 0 for none (default 10)");
+    ap.addArgument("--metrics")
+        .required(false).help("also write the final JSON summary to this file");
+  }
+
+  static RunMetrics startMetrics(Namespace ns) {
+    RunMetrics metrics = new RunMetrics();
+    long progress = ns.getString("progress") != null ? Long.parseLong(ns.getString("progress")) : 10;
+    if (progress > 0) {
+      metrics.startProgress(progress, TimeUnit.SECONDS);
+    }
+    return metrics;
+  }
+
+  // Log the summary as one JSON line and write it to the --metrics file
+  static void finishMetrics(Namespace ns, RunMetrics metrics, Pacer pacer, FieldProfiler profiler,
+                            FieldGenerator template, Map<Object, Object> runState) throws IOException {
+    metrics.stop();
+    JsonObject summary = metrics.summary();
+    JsonArray unique = FieldGenerators.uniqueSummary(template, runState);
+    if (unique.size() > 0) {
+      summary.add("unique", unique);
+    }
+    if (pacer != null) {
+      summary.add("rate", pacer.summary());
+    }
+    if (profiler != null) {
+      summary.add("fields", profiler.summary());
+    }
+    logger.info("summary {}", summary);
+    if (ns.getString("metrics") != null) {
+      Files.write(Paths.get(ns.getString("metrics")),
+          new GsonBuilder().setPrettyPrinting().create().toJson(summary).getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  // --keys and --export-keys, shared by the JSON and CSV generators
+  static void addKeyArguments(ArgumentParser ap) {
+    ap.addArgument("--keys")
+        .required(false).help("directory of the key files read by ref(template.field) and written by --export-keys");
+    ap.addArgument("--export-keys")
+        .required(false).help("comma-separated int, long or seq fields, e.g. id or customer.id, whose values are"
+            + " saved as <template>.<field>.keys for ref(...) in later runs");
+  }
+
+  // Set the key directory before the template is compiled, so ref(...) finds its keys
+  static void useKeys(Namespace ns) {
+    if (ns.getString("keys") != null) {
+      KeyFile.setDirectory(Paths.get(ns.getString("keys")));
+    }
+  }
+
+  // The template with its --export-keys fields saving their values; close the writers after the run
+  static FieldGenerator exportKeys(Namespace ns, FieldGenerator generator, List<KeyFile.Writer> writers)
+      throws IOException {
+    if (ns.getString("export_keys") != null) {
+      String name = KeyFile.templateName(ns.getString("template"));
+      for (String field : ns.getString("export_keys").split(",")) {
+        KeyFile.Writer writer = KeyFile.writer(name + "." + field.trim());
+        writers.add(writer);
+        generator = FieldGenerators.exportKeys(generator, field.trim(), writer);
       }
     }
-    return out;
+    return generator;
   }
 
-  public static class JsonGeneratorCallable implements Callable<List<String>> {
-    private String template;
-    private long eventCount;
-    private int nestedArraySize;
+  static void closeKeys(List<KeyFile.Writer> writers) throws IOException {
+    for (KeyFile.Writer writer : writers) {
+      writer.close();
+      logger.info("saved {} keys", writer.size());
+    }
+  }
 
-    public JsonGeneratorCallable(String template, long eventCount, int nestedArraySize) {
-      this.template = template;
-      this.eventCount = eventCount;
-      this.nestedArraySize = nestedArraySize;
+  // --unique-bloom, shared by the JSON and CSV generators
+  static void addUniqueArgument(ArgumentParser ap) {
+    ap.addArgument("--unique-bloom")
+        .required(false).help("track unique(...) values in a Bloom filter of this size per field, e.g. 1G, instead"
+            + " of an exact set; values stay unique but some new ones are re-drawn");
+  }
+
+  // The template with its --unique-bloom filters sized for -n values, or for about ten bits per
+  // value when there is no -n, as in --rate runs
+  static FieldGenerator compile(Namespace ns, String template, int nestedArraySize) {
+    if (ns.getString("unique_bloom") == null) {
+      return TemplateCompiler.compile(template, nestedArraySize);
     }
+    long bytes = ShardedOutput.parseSize(ns.getString("unique_bloom"), "--unique-bloom");
+    long expected = ns.getString("number") != null ? Long.parseLong(ns.getString("number")) : bytes * 8 / 10;
+    return TemplateCompiler.compile(template, nestedArraySize, bytes, expected);
+  }
+
+  // --engine rows|columns
+  static void addEngineArgument(ArgumentParser ap) {
+    ap.addArgument("--engine")
+        .choices("rows", "columns").setDefault("rows")
+        .help("generate record by record, or a batch at a time, column by column, into primitive arrays");
+  }
+
+  // -o, --mmap, --mmap-size, --output-dir, --max-file-size, --max-file-records and --compress
+  static void addOutputArguments(ArgumentParser ap) {
+    ap.addArgument("-o", "--output")
+        .required(false).help("output file, or - for stdout");
+    ap.addArgument("--mmap")
+        .action(Arguments.storeTrue())
+        .help("let all threads write the output file in parallel through memory-mapped windows; record order"
+            + " then depends on thread scheduling");
+    ap.addArgument("--mmap-size")
+        .required(false).help("expected size of the --mmap file, e.g. 120G; the file is sized once up front and"
+            + " cut to the bytes written at the end");
+    ap.addArgument("--output-dir")
+        .required(false).help("write one set of shard files per thread into this directory");
+    ap.addArgument("--max-file-size")
+        .required(false).help("roll shard files at this size, e.g. 256M");
+    ap.addArgument("--max-file-records")
+        .required(false).help("roll shard files at this number of events");
+    ap.addArgument("-z", "--compress")
+        .required(false).help("compress each batch on its worker thread: gzip or zstd, optionally with a level,"
+            + " e.g. gzip:1 or zstd:9");
+  }
 
-    @Override
-    public List<String> call() {
-      return generateEvents(template, eventCount, nestedArraySize);
+  // --start-index, --checkpoint and --checkpoint-interval, shared by the JSON and CSV generators
+  static void addRangeArguments(ArgumentParser ap) {
+    ap.addArgument("--start-index")
+        .required(false).help("index of the first event; with the same seed and -b, event i is the same in every run");
+    ap.addArgument("--checkpoint")
+        .required(false).help("save the progress of the -o file here; rerunning the same command resumes where the"
+            + " run stopped");
+    ap.addArgument("--checkpoint-interval")
+        .required(false).help("seconds between checkpoints (default 10)");
+  }
+
+  // -s, or the seed of the run being resumed, or a random one
+  static long seed(Namespace ns) throws IOException {
+    if (ns.getString("seed") != null) {
+      return Long.parseLong(ns.getString("seed"));
     }
+    Checkpoint saved = ns.getString("checkpoint") != null ? Checkpoint.load(Paths.get(ns.getString("checkpoint")))
+        : null;
+    return saved != null ? saved.seed() : ThreadLocalRandom.current().nextLong();
+  }
 
+  // Template text and the settings that change the output bytes, as saved with a checkpoint
+  static String runFingerprint(Namespace ns, String template) {
+    StringBuilder run = new StringBuilder(template);
+    for (String setting : new String[] {"nested", "engine", "compress", "delimiter"}) {
+      run.append('\n').append(setting).append('=').append(ns.getString(setting));
+    }
+    return Hashing.sha256().hashString(run, StandardCharsets.UTF_8).toString();
+  }
+
+  // Run the pipeline into the output chosen by the arguments: paced, sharded or a single file
+  static long writeRecords(Namespace ns, RecordPipeline pipeline, long eventCount, Pacer pacer, String extension,
+                           byte[] header, String template) throws Exception {
+    long start = ns.getString("start_index") != null ? Long.parseLong(ns.getString("start_index")) : 0;
+    if ((start > 0 || ns.getString("checkpoint") != null)
+        && (pacer != null || ns.getString("export_keys") != null)) {
+      throw new IllegalArgumentException("--start-index and --checkpoint cannot be used with --rate or --export-keys");
+    }
+    if (ns.getString("checkpoint") != null && (ns.getString("output_dir") != null || ns.getBoolean("mmap"))) {
+      throw new IllegalArgumentException("--checkpoint resumes a single -o file; it cannot be used with --output-dir"
+          + " or --mmap");
+    }
+    if (ns.getString("compress") != null) {
+      Compression compression = Compression.parse(ns.getString("compress"));
+      pipeline.setCompression(compression);
+      if (header != null) {
+        header = compression.compress(header);
+      }
+      extension += compression.extension();
+    }
+    long startTime = System.currentTimeMillis();
+    long written;
+    if (pacer != null) {
+      if (ns.getString("output_dir") != null || ns.getBoolean("mmap")) {
+        throw new IllegalArgumentException("--rate writes to a single output; it cannot be used with --output-dir"
+            + " or --mmap");
+      }
+      try (OutputSink sink = open(ns, header)) {
+        // flush every batch so consumers see events when they are due
+        written = pipeline.runPaced(pacer, (batch, records) -> {
+          sink.write(batch);
+          sink.flush();
+        });
+        logger.info("generated {} events ({} bytes) in {} ms", written, sink.size(),
+            System.currentTimeMillis() - startTime);
+        logPacing(pacer, written);
+      }
+    } else if (ns.getString("output_dir") != null) {
+      long maxBytes = ns.getString("max_file_size") != null
+          ? ShardedOutput.parseSize(ns.getString("max_file_size"), "--max-file-size") : Long.MAX_VALUE;
+      long maxRecords = ns.getString("max_file_records") != null
+          ? Long.parseLong(ns.getString("max_file_records")) : Long.MAX_VALUE;
+      ShardedOutput output = new ShardedOutput(Paths.get(ns.getString("output_dir")), extension, maxBytes, maxRecords);
+      output.setHeader(header);
+      output.setCompressed(ns.getString("compress") != null);
+      try {
+        written = pipeline.runParallel(start, eventCount, output::shard);
+      } finally {
+        output.close();
+      }
+      logger.info("generated {} events into {} files in {} ms", written, output.files().size(),
+          System.currentTimeMillis() - startTime);
+    } else if (ns.getBoolean("mmap")) {
+      String output = ns.getString("output");
+      if (output == null || output.equals(OutputSink.STDOUT)) {
+        throw new IllegalArgumentException("--mmap needs an output file");
+      }
+      long expectedSize = ns.getString("mmap_size") != null
+          ? ShardedOutput.parseSize(ns.getString("mmap_size"), "--mmap-size") : 0;
+      try (MappedOutput mapped = new MappedOutput(Paths.get(output), MappedOutput.DEFAULT_WINDOW_SIZE,
+          expectedSize)) {
+        mapped.writeHeader(header);
+        written = pipeline.runParallel(start, eventCount, mapped::writer);
+        logger.info("generated {} events ({} bytes) in {} ms", written, mapped.size(),
+            System.currentTimeMillis() - startTime);
+      }
+    } else if (ns.getString("checkpoint") != null) {
+      Checkpoint checkpoint = new Checkpoint(runFingerprint(ns, template), pipeline.getSeed(), pipeline.getBatchSize(),
+          start, eventCount);
+      written = writeResumable(ns, pipeline, checkpoint, header);
+      logger.info("generated {} events ({} bytes in the file) in {} ms", written, checkpoint.bytes(),
+          System.currentTimeMillis() - startTime);
+    } else {
+      try (OutputSink sink = open(ns, header)) {
+        written = pipeline.run(start, eventCount, (batch, records) -> sink.write(batch));
+        logger.info("generated {} events ({} bytes) in {} ms", written, sink.size(),
+            System.currentTimeMillis() - startTime);
+      }
+    }
+    return written;
+  }
+
+  // Write the -o file, saving a checkpoint every interval once the output before it is synced;
+  // a saved checkpoint of the same run is resumed after cutting the file back to its length
+  private static long writeResumable(Namespace ns, RecordPipeline pipeline, Checkpoint checkpoint, byte[] header)
+      throws Exception {
+    String output = ns.getString("output");
+    if (output == null || output.equals(OutputSink.STDOUT)) {
+      throw new IllegalArgumentException("--checkpoint needs an output file");
+    }
+    Path path = Paths.get(ns.getString("checkpoint"));
+    Checkpoint saved = Checkpoint.load(path);
+    if (saved != null) {
+      checkpoint.resume(saved);
+      if (checkpoint.complete()) {
+        logger.info("{} is already complete", output);
+        return 0;
+      }
+      logger.info("resuming at event {} after {} bytes", checkpoint.next(), checkpoint.bytes());
+    }
+    long intervalNanos = TimeUnit.SECONDS.toNanos(ns.getString("checkpoint_interval") != null
+        ? Long.parseLong(ns.getString("checkpoint_interval")) : Checkpoint.DEFAULT_INTERVAL_SECONDS);
+    FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try (ChannelSink sink = new ChannelSink(channel)) {
+      long base = checkpoint.bytes();
+      if (channel.size() < base) {
+        throw new IllegalStateException(output + " is shorter than its checkpoint");
+      }
+      channel.truncate(base);
+      channel.position(base);
+      if (saved == null && header != null) {
+        sink.write(header, 0, header.length);
+      }
+      long done = checkpoint.records();
+      long[] written = {0};
+      long[] due = {System.nanoTime() + intervalNanos};
+      pipeline.run(checkpoint.next(), checkpoint.remaining(), (batch, records) -> {
+        sink.write(batch);
+        written[0] += records;
+        if (System.nanoTime() >= due[0]) {
+          sink.flush();
+          channel.force(false);
+          checkpoint.setProgress(done + written[0], base + sink.size());
+          checkpoint.save(path);
+          due[0] = System.nanoTime() + intervalNanos;
+        }
+      });
+      sink.flush();
+      channel.force(false);
+      checkpoint.setProgress(done + written[0], base + sink.size());
+      checkpoint.setComplete();
+      checkpoint.save(path);
+      return written[0];
+    }
+  }
+
+  private static OutputSink open(Namespace ns, byte[] header) throws IOException {
+    OutputSink sink = OutputSink.open(ns.getString("output"));
+    if (header != null) {
+      RecordBuffer buffer = new RecordBuffer(header.length);
+      buffer.append(header);
+      sink.write(buffer);
+      sink.flush();
+    }
+    return sink;
+  }
+
+  private static void writeArrow(Namespace ns, FieldGenerator generator, int threadCount, long eventCount, long seed)
+      throws Exception {
+    if (ns.getString("rate") != null || ns.getString("output_dir") != null || ns.getString("sample_fields") != null
+        || ns.getBoolean("mmap") || ns.getString("compress") != null || ns.getString("start_index") != null
+        || ns.getString("checkpoint") != null) {
+      throw new IllegalArgumentException("--format arrow takes none of --rate, --output-dir, --mmap, --compress,"
+          + " --start-index, --checkpoint and --sample-fields");
+    }
+    int batchRows = ns.getString("batch") != null ? Integer.parseInt(ns.getString("batch"))
+        : ArrowOutput.DEFAULT_BATCH_ROWS;
+    ArrowOutput output = new ArrowOutput(generator, threadCount, batchRows, seed);
+    RunMetrics metrics = startMetrics(ns);
+    output.setMetrics(metrics);
+    long startTime = System.currentTimeMillis();
+    try (WritableByteChannel channel = OutputSink.channel(ns.getString("output"))) {
+      long written = output.write(channel, eventCount);
+      logger.info("generated {} rows ({} bytes) in {} ms", written, metrics.bytes(),
+          System.currentTimeMillis() - startTime);
+    }
+    finishMetrics(ns, metrics, null, null, generator, output.runState());
   }
 
   public static void main(String[] args) throws Exception {
     ArgumentParser ap = ArgumentParsers.newFor(JsonGenerator.class.getSimpleName()).build().defaultHelp(true);
     ap.addArgument("-t", "--template")
         .required(true).help("template for generating synthetic data");
-    ap.addArgument("-n", "--number")
-        .required(false).help("number of events to generate");
+    ap.addArgument("-n", "--number", "--count")
+        .required(false).help("total number of events to generate, shared by all threads");
     ap.addArgument("-a", "--nested")
         .required(false).help("nested array size (if any)");
     ap.addArgument("-x", "--threads")
         .required(false).help("number of threads");
+    addOutputArguments(ap);
+    ap.addArgument("-s", "--seed")
+        .required(false).help("random seed; the same seed and -b give the same output with any number of threads");
+    ap.addArgument("-b", "--batch")
+        .required(false).help("number of events per output batch");
+    addRateArguments(ap);
+    addMetricsArguments(ap);
+    ap.addArgument("--sample-fields")
+        .required(false).help("profile time and allocation per template field on every n-th record");
+    ap.addArgument("-f", "--format")
+        .choices("json", "arrow").setDefault("json")
+        .help("json lines, or an Arrow IPC file with one column per flattened field");
+    addEngineArgument(ap);
+    addKeyArguments(ap);
+    addUniqueArgument(ap);
+    addRangeArguments(ap);
     Namespace ns = ap.parseArgs(args);
 
-    int eventCount = 5; // default event count
+    long eventCount = 5; // default event count
     int nestedArraySize = 1; // default nested array size
     int threadCount = 2; // default thread count
     String template;
@@ -371,30 +472,49 @@ public final class JsonGenerator {
       template = Resources.toString(url, Charsets.UTF_8);
     }
 
-    eventCount = ns.getString("number") != null ? Integer.parseInt(ns.getString("number")) : 5;
+    eventCount = ns.getString("number") != null ? Long.parseLong(ns.getString("number")) : 5;
     nestedArraySize = ns.getString("nested") != null ? Integer.parseInt(ns.getString("nested")) : 0;
     threadCount = ns.getString("threads") != null ? Integer.parseInt(ns.getString("threads")) : 2;
 
     template = template.replace("DTM_RUNTIME", "2021-09-30T17:53:33.838+0000");
-    ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
-    Set<Callable<List<String>>> callables = new HashSet<>();
-    for (int i = 0; i < threadCount; i++) {
-      callables.add(new JsonGeneratorCallable(template, eventCount, nestedArraySize));
+    int batchSize = ns.getString("batch") != null ? Integer.parseInt(ns.getString("batch"))
+        : RecordPipeline.DEFAULT_BATCH_SIZE;
+    long seed = seed(ns);
+    logger.info("using seed {}", seed);
+    useKeys(ns);
+    FieldGenerator generator = compile(ns, template, nestedArraySize);
+    List<KeyFile.Writer> keys = new ArrayList<>();
+    generator = exportKeys(ns, generator, keys);
+    FieldGenerator compiled = generator;
+    FieldProfiler profiler = null;
+    if (ns.getString("sample_fields") != null) {
+      profiler = new FieldProfiler();
+      generator = profiler.instrument(generator);
     }
-
-    List<Future<List<String>>> futureList = executorService.invokeAll(callables);
-    futureList.stream().forEach(s -> {
-      try {
-        List<String> events = s.get();
-        events.stream().forEach(e -> {
-          logger.info(e);
-        });
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      } catch (ExecutionException e) {
-        e.printStackTrace();
+    if (ns.getString("format").equals("arrow")) {
+      writeArrow(ns, generator, threadCount, eventCount, seed);
+      closeKeys(keys);
+      System.exit(0);
+    }
+    RecordPipeline pipeline;
+    if (ns.getString("engine").equals("columns")) {
+      if (profiler != null) {
+        throw new IllegalArgumentException("--sample-fields profiles the rows engine only");
       }
-    });
+      pipeline = new RecordPipeline(new ColumnBatch(generator).jsonEncoder(), threadCount, batchSize,
+          RecordPipeline.DEFAULT_QUEUE_CAPACITY, seed);
+    } else {
+      pipeline = new RecordPipeline(generator, threadCount, batchSize, RecordPipeline.DEFAULT_QUEUE_CAPACITY, seed);
+    }
+    if (profiler != null) {
+      pipeline.setSampleInterval(Integer.parseInt(ns.getString("sample_fields")));
+    }
+    RunMetrics metrics = startMetrics(ns);
+    pipeline.setMetrics(metrics);
+    Pacer pacer = pacer(ns);
+    writeRecords(ns, pipeline, eventCount, pacer, ".json", null, template);
+    closeKeys(keys);
+    finishMetrics(ns, metrics, pacer, profiler, compiled, pipeline.runState());
 
     System.exit(0);
   }
@@ -0,0 +1,190 @@
+package com.orange.datagen;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keys of one template field, e.g. {@code customers.id}, saved by a run with --export-keys so that
+ * later runs can reference them with {@code ref(customers.id)}. A key file is a flat array of
+ * 8-byte big-endian longs, key i being the value of record i. Readers map it in 1G segments
+ * instead of loading it, so billions of keys cost page cache rather than heap. Key files live in
+ * the directory set with --keys, named after the template file and the field.
+ */
+public final class KeyFile {
+
+  private static final int SEGMENT_SHIFT = 27;
+  private static final long SEGMENT_KEYS = 1L << SEGMENT_SHIFT;
+
+  private static volatile Path directory = Paths.get(".");
+  // Mapped key files, shared by every ref(...) of the same keys
+  private static final ConcurrentMap<Path, KeyFile> opened = new ConcurrentHashMap<>();
+
+  private final Path path;
+  private final long size;
+  private final MappedByteBuffer[] segments;
+
+  private KeyFile(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      this.path = path;
+      this.size = channel.size() / Long.BYTES;
+      this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_KEYS - 1) >>> SEGMENT_SHIFT)];
+      for (int i = 0; i < segments.length; i++) {
+        long first = (long) i << SEGMENT_SHIFT;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, first * Long.BYTES,
+            Math.min(SEGMENT_KEYS, size - first) * Long.BYTES);
+      }
+    }
+  }
+
+  // Directory of the key files read by ref(...) and written by --export-keys
+  public static void setDirectory(Path directory) {
+    KeyFile.directory = directory;
+  }
+
+  public static Path path(String name) {
+    return directory.resolve(name + ".keys").toAbsolutePath().normalize();
+  }
+
+  // Name of a template's keys: the template file name without its extension
+  public static String templateName(String template) {
+    String name = Paths.get(template).getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot > 0 ? name.substring(0, dot) : name;
+  }
+
+  // Keys saved under a name such as customers.id; mapped once and then shared
+  public static KeyFile open(String name) {
+    return opened.computeIfAbsent(path(name), path -> {
+      try {
+        KeyFile keys = new KeyFile(path);
+        if (keys.size == 0) {
+          throw new IllegalArgumentException("no keys in " + path);
+        }
+        return keys;
+      } catch (IOException e) {
+        throw new UncheckedIOException("cannot read keys " + path, e);
+      }
+    });
+  }
+
+  // Writer for the keys saved under a name; replaces any earlier keys of that name
+  public static Writer writer(String name) throws IOException {
+    Path path = path(name);
+    opened.remove(path);
+    return new Writer(path);
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public long get(long index) {
+    return segments[(int) (index >>> SEGMENT_SHIFT)].getLong((int) (index & (SEGMENT_KEYS - 1)) * Long.BYTES);
+  }
+
+  /**
+   * Saves the keys of a run. Each worker buffers the keys of its current chunk and writes them at
+   * the chunk's record index with a positional write, so the file does not depend on the thread
+   * count and workers never wait for each other.
+   */
+  public static final class Writer implements Closeable {
+    private static final int BUFFER_KEYS = 8 * 1024;
+
+    private final FileChannel channel;
+    private final List<Pending> pending = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong size = new AtomicLong();
+
+    private Writer(Path path) throws IOException {
+      this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.WRITE);
+    }
+
+    // Save the key of the context's next record
+    public void add(GeneratorContext context, long key) {
+      Pending keys = (Pending) context.getLocal(this);
+      if (keys == null) {
+        keys = new Pending();
+        pending.add(keys);
+        context.putLocal(this, keys);
+      }
+      if (keys.chunk != context.firstRecord()) {
+        flush(keys);
+        keys.chunk = context.firstRecord();
+        keys.next = keys.chunk;
+      }
+      if (!keys.buffer.hasRemaining()) {
+        flush(keys);
+      }
+      if (keys.buffer.position() == 0) {
+        keys.start = keys.next;
+      }
+      keys.buffer.putLong(key);
+      keys.next++;
+    }
+
+    private void flush(Pending keys) {
+      ByteBuffer buffer = keys.buffer;
+      if (buffer.position() == 0) {
+        return;
+      }
+      buffer.flip();
+      long position = keys.start * Long.BYTES;
+      size.accumulateAndGet(keys.start + buffer.remaining() / Long.BYTES, Math::max);
+      try {
+        while (buffer.hasRemaining()) {
+          position += channel.write(buffer, position);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      buffer.clear();
+    }
+
+    // Number of keys written so far
+    public long size() {
+      return size.get();
+    }
+
+    // Write what the workers still buffer; call once all workers are done
+    @Override
+    public void close() throws IOException {
+      try {
+        synchronized (pending) {
+          for (Pending keys : pending) {
+            flush(keys);
+          }
+        }
+      } finally {
+        channel.close();
+      }
+    }
+
+    /**
+     * One worker's keys not yet written, from record index start on.
+     */
+    private static final class Pending {
+      final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_KEYS * Long.BYTES);
+      long chunk = -1;
+      long next;
+      long start;
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes all workers' batches into one file through memory-mapped windows. Each batch claims the
+ * next region of the file with an atomic add, and the worker copies it into its own mapped window,
+ * so workers fill disjoint regions concurrently without a lock or a single writer thread. The file
+ * can be pre-sized to the expected output; past that, mapping a window extends it. close() flushes
+ * the windows to disk and truncates the file to the bytes written. Batches land in the order they
+ * are claimed, so the record order depends on thread scheduling.
+ */
+public final class MappedOutput implements Closeable {
+
+  public static final long DEFAULT_WINDOW_SIZE = 64L * 1024 * 1024;
+
+  private final FileChannel channel;
+  private final long windowSize;
+  private final AtomicLong position = new AtomicLong();
+  private final List<Window> windows = Collections.synchronizedList(new ArrayList<>());
+
+  public MappedOutput(Path path, long windowSize) throws IOException {
+    this(path, windowSize, 0);
+  }
+
+  // expectedSize, if above 0, sizes the file up front, so that windows inside it map without
+  // extending the file
+  public MappedOutput(Path path, long windowSize, long expectedSize) throws IOException {
+    if (windowSize < 1 || windowSize > Integer.MAX_VALUE || expectedSize < 0) {
+      throw new IllegalArgumentException("window size must be positive and below 2G, and the expected size must"
+          + " not be negative");
+    }
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.windowSize = windowSize;
+    if (expectedSize > 0) {
+      // one byte at the end leaves the rest of the file sparse
+      channel.write(ByteBuffer.wrap(new byte[1]), expectedSize - 1);
+    }
+  }
+
+  // Written once at the start of the file, e.g. a CSV header line; call before the workers start
+  public void writeHeader(byte[] header) throws IOException {
+    if (header != null && header.length > 0) {
+      RecordBuffer buffer = new RecordBuffer(header.length);
+      buffer.append(header);
+      newWindow().write(buffer, 0);
+    }
+  }
+
+  // Writer for one worker; each worker must use its own
+  public RecordPipeline.BatchWriter writer(int worker) {
+    return newWindow();
+  }
+
+  private Window newWindow() {
+    Window window = new Window();
+    windows.add(window);
+    return window;
+  }
+
+  // Bytes claimed so far
+  public long size() {
+    return position.get();
+  }
+
+  // Flush the windows, then cut off the unused end of the file; call once all workers are done.
+  // The windows are released before the truncate, so no mapping is used past the new end.
+  @Override
+  public void close() throws IOException {
+    try {
+      synchronized (windows) {
+        for (Window window : windows) {
+          window.release();
+        }
+        windows.clear();
+      }
+      channel.truncate(position.get());
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * One worker's view of the file. Regions it claims usually lie a few batches after its previous
+   * one, so a window is remapped only when a claim runs past its end.
+   */
+  private final class Window implements RecordPipeline.BatchWriter {
+    private MappedByteBuffer buffer;
+    private long start;
+
+    @Override
+    public void write(RecordBuffer batch, int records) throws IOException {
+      int length = batch.size();
+      long at = position.getAndAdd(length);
+      if (buffer == null || at < start || at + length > start + buffer.capacity()) {
+        // mapping past the end of the file extends it
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, at, Math.max(windowSize, length));
+        start = at;
+      }
+      buffer.position((int) (at - start));
+      buffer.put(batch.array(), 0, length);
+    }
+
+    private void release() {
+      if (buffer != null) {
+        buffer.force();
+        buffer = null;
+      }
+    }
+  }
+
+}
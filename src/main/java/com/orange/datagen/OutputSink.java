@@ -0,0 +1,42 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Destination for encoded record batches.
+ */
+public interface OutputSink extends Closeable, Flushable {
+
+  String STDOUT = "-";
+
+  void write(RecordBuffer batch) throws IOException;
+
+  // Bytes written so far
+  long size();
+
+  // Open a file sink, or stdout for null or "-"
+  static OutputSink open(String output) throws IOException {
+    return new ChannelSink(channel(output));
+  }
+
+  // The raw channel behind open(output), for writers with their own framing
+  static WritableByteChannel channel(String output) throws IOException {
+    if (output == null || output.equals(STDOUT)) {
+      return Channels.newChannel(new FileOutputStream(FileDescriptor.out));
+    }
+    return FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+  }
+
+}
@@ -0,0 +1,130 @@
+package com.orange.datagen;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces events from all worker threads against one {@link RateProfile}. Workers claim chunks of
+ * event numbers, generate them ahead of time and release each chunk when its last event is due,
+ * so output never runs ahead of the schedule. Chunks are sized to about a millisecond of events
+ * at the current rate. Also records how late chunks were released, as pacing jitter.
+ */
+public final class Pacer {
+
+  private static final long MAX_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final RateProfile profile;
+  private final long limit;
+  private final long durationNanos;
+  private final AtomicLong claimed = new AtomicLong();
+  private volatile long startNanos;
+
+  private long released;
+  private long chunks;
+  private double latenessSum;
+  private double latenessSquares;
+  private long maxLateness;
+
+  // Stops after limit events or durationNanos, whichever comes first
+  public Pacer(RateProfile profile, long limit, long durationNanos) {
+    this.profile = profile;
+    this.limit = limit;
+    this.durationNanos = durationNanos;
+    this.startNanos = System.nanoTime();
+  }
+
+  // Restart the schedule; call before the workers start
+  public void start() {
+    startNanos = System.nanoTime();
+  }
+
+  // About a millisecond of events at the current rate, at most max
+  public int chunkSize(int max) {
+    double rate = profile.rateAt((System.nanoTime() - startNanos) / 1e9);
+    return (int) Math.max(1, Math.min(max, rate / 1000));
+  }
+
+  // First event number of a claimed chunk, or -1 once the run is over; the chunk may be cut
+  // short by the limit
+  public long claim(int size) {
+    if (System.nanoTime() - startNanos >= durationNanos) {
+      return -1;
+    }
+    long first = claimed.getAndAdd(size);
+    return first < limit ? first : -1;
+  }
+
+  public long limit() {
+    return limit;
+  }
+
+  // Wait until the given event number is due; false if that is after the end of the run
+  public boolean awaitDue(long event) throws InterruptedException {
+    long due = (long) (profile.timeOf(event) * 1e9);
+    if (due > durationNanos) {
+      return false;
+    }
+    long deadline = startNanos + due;
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (remaining > MAX_SPIN_NANOS) {
+        LockSupport.parkNanos(remaining - MAX_SPIN_NANOS);
+      } else {
+        Thread.onSpinWait();
+      }
+    }
+    record(-remaining, event + 1);
+    return true;
+  }
+
+  private synchronized void record(long lateness, long count) {
+    released = Math.max(released, count);
+    chunks++;
+    latenessSum += lateness;
+    latenessSquares += (double) lateness * lateness;
+    maxLateness = Math.max(maxLateness, lateness);
+  }
+
+  public long elapsedNanos() {
+    return System.nanoTime() - startNanos;
+  }
+
+  // Average target rate over the released events
+  public synchronized double targetRate() {
+    return released == 0 ? 0 : released / profile.timeOf(released);
+  }
+
+  // Mean lateness of released chunks in milliseconds
+  public synchronized double meanJitterMillis() {
+    return chunks == 0 ? 0 : latenessSum / chunks / 1e6;
+  }
+
+  public synchronized double stdDevJitterMillis() {
+    if (chunks == 0) {
+      return 0;
+    }
+    double mean = latenessSum / chunks;
+    return Math.sqrt(Math.max(0, latenessSquares / chunks - mean * mean)) / 1e6;
+  }
+
+  public synchronized double maxJitterMillis() {
+    return maxLateness / 1e6;
+  }
+
+  // Target rate and jitter for the run summary
+  public synchronized JsonObject summary() {
+    JsonObject summary = new JsonObject();
+    summary.addProperty("targetPerSecond", Math.round(targetRate() * 10) / 10.0);
+    summary.addProperty("jitterMeanMillis", meanJitterMillis());
+    summary.addProperty("jitterStdDevMillis", stdDevJitterMillis());
+    summary.addProperty("jitterMaxMillis", maxJitterMillis());
+    return summary;
+  }
+
+}
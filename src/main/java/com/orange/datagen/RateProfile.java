@@ -0,0 +1,186 @@
+package com.orange.datagen;
+
+import java.util.Locale;
+
+/**
+ * Target event rate over time for rate-controlled runs: constant, a linear ramp up to the rate,
+ * or the rate with periodic bursts. The schedule is expressed as the time at which the n-th
+ * event is due, so workers can pace whole batches against it.
+ */
+public abstract class RateProfile {
+
+  protected final double rate;
+
+  protected RateProfile(double rate) {
+    if (!(rate > 0)) {
+      throw new IllegalArgumentException("rate must be positive: " + rate);
+    }
+    this.rate = rate;
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+  // Target events per second at the given time
+  public abstract double rateAt(double seconds);
+
+  // Seconds after the start at which the given number of events should have been emitted
+  public abstract double timeOf(long count);
+
+  public static RateProfile constant(double rate) {
+    return new Constant(rate);
+  }
+
+  // From 0 up to the rate over rampSeconds, then steady
+  public static RateProfile ramp(double rate, double rampSeconds) {
+    return new Ramp(rate, rampSeconds);
+  }
+
+  // The rate, multiplied by factor for the last burstSeconds of every period
+  public static RateProfile burst(double rate, double factor, double burstSeconds, double periodSeconds) {
+    return new Burst(rate, factor, burstSeconds, periodSeconds);
+  }
+
+  // constant, ramp:<duration> or burst:<factor>x:<duration>/<period>, e.g. burst:5x:10s/60s
+  public static RateProfile parse(String profile, double rate) {
+    String[] parts = profile == null ? new String[] {"constant"} : profile.trim().split(":");
+    switch (parts[0]) {
+      case "constant":
+        return constant(rate);
+      case "ramp":
+        if (parts.length == 2) {
+          return ramp(rate, parseSeconds(parts[1]));
+        }
+        break;
+      case "burst":
+        if (parts.length == 3 && parts[1].endsWith("x") && parts[2].contains("/")) {
+          String[] window = parts[2].split("/");
+          return burst(rate, Double.parseDouble(parts[1].substring(0, parts[1].length() - 1)),
+              parseSeconds(window[0]), parseSeconds(window[1]));
+        }
+        break;
+      default:
+    }
+    throw new IllegalArgumentException("expected constant, ramp:<duration> or burst:<factor>x:<duration>/<period>: "
+        + profile);
+  }
+
+  // Events per second from 5000, 5000/s, 300/m, 50k/s or 2/h
+  public static double parseRate(String rate) {
+    String value = rate.trim().toLowerCase(Locale.ROOT);
+    double seconds = 1;
+    int slash = value.indexOf('/');
+    if (slash >= 0) {
+      seconds = parseSeconds("1" + value.substring(slash + 1));
+      value = value.substring(0, slash).trim();
+    }
+    double multiplier = 1;
+    if (value.endsWith("k")) {
+      multiplier = 1000;
+      value = value.substring(0, value.length() - 1);
+    }
+    return Double.parseDouble(value) * multiplier / seconds;
+  }
+
+  // Seconds from 250ms, 30s, 10m, 2h or a plain number of seconds
+  public static double parseSeconds(String duration) {
+    String value = duration.trim().toLowerCase(Locale.ROOT);
+    double unit = 1;
+    if (value.endsWith("ms")) {
+      unit = 0.001;
+      value = value.substring(0, value.length() - 2);
+    } else if (value.endsWith("s")) {
+      value = value.substring(0, value.length() - 1);
+    } else if (value.endsWith("m")) {
+      unit = 60;
+      value = value.substring(0, value.length() - 1);
+    } else if (value.endsWith("h")) {
+      unit = 3600;
+      value = value.substring(0, value.length() - 1);
+    }
+    double seconds = Double.parseDouble(value.trim()) * unit;
+    if (!(seconds > 0)) {
+      throw new IllegalArgumentException("duration must be positive: " + duration);
+    }
+    return seconds;
+  }
+
+  private static final class Constant extends RateProfile {
+    private Constant(double rate) {
+      super(rate);
+    }
+
+    @Override
+    public double rateAt(double seconds) {
+      return rate;
+    }
+
+    @Override
+    public double timeOf(long count) {
+      return count / rate;
+    }
+  }
+
+  private static final class Ramp extends RateProfile {
+    private final double rampSeconds;
+    private final double rampCount;
+
+    private Ramp(double rate, double rampSeconds) {
+      super(rate);
+      this.rampSeconds = rampSeconds;
+      this.rampCount = rate * rampSeconds / 2;
+    }
+
+    @Override
+    public double rateAt(double seconds) {
+      return seconds < rampSeconds ? rate * seconds / rampSeconds : rate;
+    }
+
+    // count = rate * t^2 / (2 * rampSeconds) while ramping
+    @Override
+    public double timeOf(long count) {
+      if (count <= rampCount) {
+        return Math.sqrt(2 * count * rampSeconds / rate);
+      }
+      return rampSeconds + (count - rampCount) / rate;
+    }
+  }
+
+  private static final class Burst extends RateProfile {
+    private final double factor;
+    private final double steadySeconds;
+    private final double periodSeconds;
+    private final double steadyCount;
+    private final double periodCount;
+
+    private Burst(double rate, double factor, double burstSeconds, double periodSeconds) {
+      super(rate);
+      if (!(factor > 0) || burstSeconds > periodSeconds) {
+        throw new IllegalArgumentException("burst needs a positive factor and a duration within its period");
+      }
+      this.factor = factor;
+      this.steadySeconds = periodSeconds - burstSeconds;
+      this.periodSeconds = periodSeconds;
+      this.steadyCount = rate * steadySeconds;
+      this.periodCount = steadyCount + rate * factor * burstSeconds;
+    }
+
+    @Override
+    public double rateAt(double seconds) {
+      return seconds % periodSeconds < steadySeconds ? rate : rate * factor;
+    }
+
+    @Override
+    public double timeOf(long count) {
+      double periods = Math.floor(count / periodCount);
+      double rest = count - periods * periodCount;
+      double time = periods * periodSeconds;
+      if (rest <= steadyCount) {
+        return time + rest / rate;
+      }
+      return time + steadySeconds + (rest - steadyCount) / (rate * factor);
+    }
+  }
+
+}
@@ -0,0 +1,306 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Producer/consumer pipeline: worker threads write newline terminated records into batches, one
+ * {@link ChunkScheduler} chunk per batch, while the calling thread writes the batches in chunk order
+ * to a {@link BatchWriter}. Memory use is bounded by the thread count times the queue capacity, not
+ * by the event count.
+ */
+public final class RecordPipeline {
+
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+  public static final int DEFAULT_QUEUE_CAPACITY = 4;
+  private static final Batch END = new Batch(0, -1);
+
+  /**
+   * Receives batches of encoded records in a deterministic order.
+   */
+  public interface BatchWriter {
+    void write(RecordBuffer batch, int records) throws IOException;
+  }
+
+  /**
+   * Writes one record, without the line break, into a batch.
+   */
+  public interface RecordWriter {
+    void write(GeneratorContext context, RecordBuffer out);
+  }
+
+  /**
+   * Writes a number of records, each followed by a line break, into a batch.
+   */
+  public interface BatchEncoder {
+    void write(GeneratorContext context, int records, RecordBuffer out);
+
+    // Records [skip, skip + records) of a chunk of chunkSize records, the same as when the whole
+    // chunk is written. Records that continue one random stream from one call to the next only
+    // need the skipped ones generated on top.
+    default void write(GeneratorContext context, int skip, int records, int chunkSize, RecordBuffer out) {
+      if (skip > 0) {
+        int start = out.size();
+        write(context, skip, out);
+        out.setSize(start);
+      }
+      write(context, records, out);
+    }
+  }
+
+  private final BatchEncoder encoder;
+  private final int threadCount;
+  private final int batchSize;
+  private final int queueCapacity;
+  private final long seed;
+  private RunMetrics metrics = new RunMetrics();
+  private Compression compression;
+  private int sampleInterval;
+  // State the workers of the last run shared, such as the values of unique(...) fields
+  private volatile ConcurrentMap<Object, Object> runState = new ConcurrentHashMap<>();
+
+  public RecordPipeline(FieldGenerator generator, int threadCount) {
+    this(generator, threadCount, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY, ThreadLocalRandom.current().nextLong());
+  }
+
+  // JSON records of the compiled template
+  public RecordPipeline(FieldGenerator generator, int threadCount, int batchSize, int queueCapacity, long seed) {
+    this(generator::writeJson, threadCount, batchSize, queueCapacity, seed);
+  }
+
+  public RecordPipeline(RecordWriter recordWriter, int threadCount, int batchSize, int queueCapacity, long seed) {
+    this((context, records, out) -> {
+      for (int i = 0; i < records; i++) {
+        context.startRecord();
+        recordWriter.write(context, out);
+        out.append('\n');
+      }
+    }, threadCount, batchSize, queueCapacity, seed);
+  }
+
+  // Each batch is seeded from the seed and its chunk index, so a seed and batch size fix record i
+  // whatever the thread count or the index the run starts at
+  public RecordPipeline(BatchEncoder encoder, int threadCount, int batchSize, int queueCapacity, long seed) {
+    if (threadCount < 1 || batchSize < 1 || queueCapacity < 1) {
+      throw new IllegalArgumentException("thread count, batch size and queue capacity must be positive");
+    }
+    this.encoder = encoder;
+    this.threadCount = threadCount;
+    this.batchSize = batchSize;
+    this.queueCapacity = queueCapacity;
+    this.seed = seed;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setMetrics(RunMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  // Compress every batch on its worker; written bytes then count compressed bytes
+  public void setCompression(Compression compression) {
+    this.compression = compression;
+  }
+
+  // Sample every n-th record of each worker for a FieldProfiler-instrumented generator
+  public void setSampleInterval(int records) {
+    this.sampleInterval = records;
+  }
+
+  public ConcurrentMap<Object, Object> runState() {
+    return runState;
+  }
+
+  private List<GeneratorContext> newContexts() {
+    ConcurrentMap<Object, Object> shared = new ConcurrentHashMap<>();
+    runState = shared;
+    List<GeneratorContext> contexts = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      GeneratorContext context = new GeneratorContext(new SplittableRandom(seed), shared);
+      context.setSampleInterval(sampleInterval);
+      contexts.add(context);
+    }
+    return contexts;
+  }
+
+  // Generate records in total, in chunks of one batch; returns the number of records written
+  public long run(long records, BatchWriter writer) throws Exception {
+    return run(0, records, writer);
+  }
+
+  // Records [start, start + records) of the run; batches follow chunk boundaries, so the first may
+  // be short
+  public long run(long start, long records, BatchWriter writer) throws Exception {
+    ConcurrentLinkedQueue<Batch> free = new ConcurrentLinkedQueue<>();
+    AtomicInteger pending = new AtomicInteger();
+    metrics.setQueueDepth(pending::get);
+    long[] written = {0};
+    new ChunkScheduler(start, records, batchSize, seed).runOrdered(newContexts(), threadCount * queueCapacity,
+        (context, chunk, skip, count) -> {
+          Batch batch = free.poll();
+          if (batch == null) {
+            batch = new Batch(64 * 1024, 0);
+          }
+          fill(context, batch, skip, count, batchSize);
+          pending.incrementAndGet();
+          return batch;
+        },
+        batch -> {
+          pending.decrementAndGet();
+          writer.write(batch.buffer, batch.records);
+          metrics.written(batch.records, batch.buffer.size());
+          written[0] += batch.records;
+          free.offer(batch);
+        });
+    return written[0];
+  }
+
+  // Each worker writes the chunks it generates straight to its own writer, without a shared queue
+  // or lock; chunks are written in the order they finish
+  public long runParallel(long records, IntFunction<BatchWriter> writers) throws Exception {
+    return runParallel(0, records, writers);
+  }
+
+  public long runParallel(long start, long records, IntFunction<BatchWriter> writers) throws Exception {
+    List<GeneratorContext> contexts = newContexts();
+    List<Batch> batches = new ArrayList<>();
+    List<BatchWriter> workerWriters = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      batches.add(new Batch(64 * 1024, 0));
+      workerWriters.add(writers.apply(i));
+    }
+    LongAdder written = new LongAdder();
+    new ChunkScheduler(start, records, batchSize, seed).runUnordered(contexts,
+        (worker, context, chunk, skip, count) -> {
+          Batch batch = batches.get(worker);
+          fill(context, batch, skip, count, batchSize);
+          workerWriters.get(worker).write(batch.buffer, batch.records);
+          metrics.written(batch.records, batch.buffer.size());
+          written.add(batch.records);
+        });
+    return written.sum();
+  }
+
+  // Workers release batches as the pacer schedules them; the calling thread writes them in
+  // arrival order until the pacer's limit or duration is reached
+  public long runPaced(Pacer pacer, BatchWriter writer)
+      throws IOException, InterruptedException, ExecutionException {
+    List<GeneratorContext> contexts = newContexts();
+    ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+    List<Future<?>> futures = new ArrayList<>();
+    BlockingQueue<Batch> full = new ArrayBlockingQueue<>(threadCount * queueCapacity);
+    BlockingQueue<Batch> free = new ArrayBlockingQueue<>(threadCount * (queueCapacity + 1));
+    metrics.setQueueDepth(full::size);
+    pacer.start();
+    try {
+      for (int i = 0; i < threadCount; i++) {
+        GeneratorContext context = contexts.get(i);
+        futures.add(executorService.submit(() -> {
+          try {
+            while (true) {
+              int size = pacer.chunkSize(batchSize);
+              long first = pacer.claim(size);
+              if (first < 0) {
+                break;
+              }
+              context.reseed(ChunkScheduler.chunkSeed(seed, first), first);
+              Batch batch = free.poll();
+              if (batch == null) {
+                batch = new Batch(64 * 1024, 0);
+              }
+              int records = (int) Math.min(size, pacer.limit() - first);
+              fill(context, batch, 0, records, records);
+              if (!pacer.awaitDue(first + batch.records - 1)) {
+                break;
+              }
+              full.put(batch);
+            }
+          } finally {
+            context.close();
+            full.put(END);
+          }
+          return null;
+        }));
+      }
+      long written = 0;
+      int active = threadCount;
+      while (active > 0) {
+        Batch batch = full.take();
+        if (batch.records < 0) {
+          active--;
+          continue;
+        }
+        writer.write(batch.buffer, batch.records);
+        metrics.written(batch.records, batch.buffer.size());
+        written += batch.records;
+        free.offer(batch);
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      return written;
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private void fill(GeneratorContext context, Batch batch, int skip, int records, int chunkSize) {
+    batch.buffer.reset();
+    batch.records = records;
+    if (compression == null) {
+      encode(context, skip, records, chunkSize, batch.buffer);
+      return;
+    }
+    // encode into the worker's own buffer, then compress into the batch
+    RecordBuffer encoded = (RecordBuffer) context.getLocal(this);
+    if (encoded == null) {
+      encoded = new RecordBuffer(64 * 1024);
+      context.putLocal(this, encoded);
+    }
+    encoded.reset();
+    encode(context, skip, records, chunkSize, encoded);
+    compression.compress(context, encoded, batch.buffer);
+  }
+
+  private void encode(GeneratorContext context, int skip, int records, int chunkSize, RecordBuffer out) {
+    if (skip == 0 && records == chunkSize) {
+      encoder.write(context, records, out);
+    } else {
+      encoder.write(context, skip, records, chunkSize, out);
+    }
+  }
+
+  private static final class Batch {
+    private final RecordBuffer buffer;
+    private int records;
+
+    private Batch(int capacity, int records) {
+      this.buffer = new RecordBuffer(capacity);
+      this.records = records;
+    }
+  }
+
+}
@@ -0,0 +1,98 @@
+package com.orange.datagen;
+
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Records and bytes written by a run, with periodic progress lines and a final JSON summary.
+ */
+public final class RunMetrics {
+
+  private static final Logger logger = LoggerFactory.getLogger(RunMetrics.class);
+
+  private final LongAdder records = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder batches = new LongAdder();
+  private final long startNanos = System.nanoTime();
+  private volatile IntSupplier queueDepth = () -> 0;
+  private volatile int maxQueueDepth;
+  private ScheduledExecutorService progress;
+  private long endNanos;
+
+  // Called for every batch handed to the output
+  public void written(long records, long bytes) {
+    this.records.add(records);
+    this.bytes.add(bytes);
+    this.batches.increment();
+    int depth = queueDepth.getAsInt();
+    if (depth > maxQueueDepth) {
+      maxQueueDepth = depth;
+    }
+  }
+
+  // Batches generated but not yet written; sampled per batch and by the progress lines
+  public void setQueueDepth(IntSupplier queueDepth) {
+    this.queueDepth = queueDepth;
+  }
+
+  public long records() {
+    return records.sum();
+  }
+
+  public long bytes() {
+    return bytes.sum();
+  }
+
+  // Log progress every interval until stop()
+  public synchronized void startProgress(long interval, TimeUnit unit) {
+    progress = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "progress");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long[] last = {startNanos, 0, 0};
+    progress.scheduleAtFixedRate(() -> {
+      long now = System.nanoTime();
+      long records = records();
+      long bytes = bytes();
+      double seconds = (now - last[0]) / 1e9;
+      int depth = queueDepth.getAsInt();
+      logger.info("progress: {} records, {} records/s, {} MB/s, queue depth {}", records,
+          Math.round((records - last[1]) / seconds), String.format("%.1f", (bytes - last[2]) / seconds / 1e6), depth);
+      last[0] = now;
+      last[1] = records;
+      last[2] = bytes;
+    }, interval, interval, unit);
+  }
+
+  public synchronized void stop() {
+    if (endNanos == 0) {
+      endNanos = System.nanoTime();
+    }
+    if (progress != null) {
+      progress.shutdownNow();
+      progress = null;
+    }
+  }
+
+  public synchronized JsonObject summary() {
+    double seconds = ((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos) / 1e9;
+    JsonObject summary = new JsonObject();
+    summary.addProperty("records", records());
+    summary.addProperty("bytes", bytes());
+    summary.addProperty("batches", batches.sum());
+    summary.addProperty("seconds", Math.round(seconds * 1000) / 1000.0);
+    summary.addProperty("recordsPerSecond", Math.round(records() / seconds));
+    summary.addProperty("megabytesPerSecond", Math.round(bytes() / seconds / 1e5) / 10.0);
+    summary.addProperty("maxQueueDepth", maxQueueDepth);
+    return summary;
+  }
+
+}
@@ -0,0 +1,241 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes each worker's records to its own shard files in an output directory, rolling to a new
+ * file when the size or record limit is reached, and lists the files in manifest.json on close.
+ */
+public final class ShardedOutput implements Closeable {
+
+  public static final String MANIFEST = "manifest.json";
+  private static final int SHARD_BUFFER_SIZE = 1024 * 1024;
+
+  private final Path directory;
+  private final String extension;
+  private final long maxBytes;
+  private final long maxRecords;
+  private final List<Shard> shards = new ArrayList<>();
+  private byte[] header;
+  private boolean compressed;
+
+  public ShardedOutput(Path directory, String extension, long maxBytes, long maxRecords) throws IOException {
+    if (maxBytes < 1 || maxRecords < 1) {
+      throw new IllegalArgumentException("file size and record limits must be positive");
+    }
+    this.directory = Files.createDirectories(directory);
+    this.extension = extension;
+    this.maxBytes = maxBytes;
+    this.maxRecords = maxRecords;
+  }
+
+  // Parse a size such as 512, 64K, 128M or 2G given to the named option
+  public static long parseSize(String size, String option) {
+    String value = size.trim().toUpperCase();
+    if (value.isEmpty()) {
+      throw new IllegalArgumentException(option + " needs a size such as 512, 64K, 128M or 2G");
+    }
+    long unit = 1;
+    switch (value.charAt(value.length() - 1)) {
+      case 'K':
+        unit = 1024L;
+        break;
+      case 'M':
+        unit = 1024L * 1024;
+        break;
+      case 'G':
+        unit = 1024L * 1024 * 1024;
+        break;
+      default:
+    }
+    if (unit > 1) {
+      value = value.substring(0, value.length() - 1);
+    }
+    try {
+      return Long.parseLong(value.trim()) * unit;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(option + " needs a size such as 512, 64K, 128M or 2G: " + size);
+    }
+  }
+
+  // Written at the start of every file, e.g. a CSV header line; not counted as a record
+  public synchronized void setHeader(byte[] header) {
+    this.header = header;
+  }
+
+  // Batches are gzip members or zstd frames: each is written whole and counted by its record
+  // count, and files roll only between batches, so every file decompresses on its own
+  public synchronized void setCompressed(boolean compressed) {
+    this.compressed = compressed;
+  }
+
+  // Writer for one worker; each worker must use its own
+  public synchronized RecordPipeline.BatchWriter shard(int worker) {
+    Shard shard = new Shard(worker);
+    shards.add(shard);
+    return shard;
+  }
+
+  public synchronized List<ShardFile> files() {
+    List<ShardFile> files = new ArrayList<>();
+    for (Shard shard : shards) {
+      files.addAll(shard.files);
+    }
+    files.sort(Comparator.comparing(f -> f.name));
+    return files;
+  }
+
+  // Close open shard files and write the manifest; call once all workers are done
+  @Override
+  public synchronized void close() throws IOException {
+    for (Shard shard : shards) {
+      shard.finish();
+    }
+    JsonArray entries = new JsonArray();
+    long records = 0;
+    long bytes = 0;
+    for (ShardFile file : files()) {
+      JsonObject entry = new JsonObject();
+      entry.addProperty("file", file.name);
+      entry.addProperty("records", file.records);
+      entry.addProperty("bytes", file.bytes);
+      entries.add(entry);
+      records += file.records;
+      bytes += file.bytes;
+    }
+    JsonObject manifest = new JsonObject();
+    manifest.addProperty("records", records);
+    manifest.addProperty("bytes", bytes);
+    manifest.add("files", entries);
+    Files.write(directory.resolve(MANIFEST),
+        new GsonBuilder().setPrettyPrinting().create().toJson(manifest).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * A completed shard file.
+   */
+  public static final class ShardFile {
+    private final String name;
+    private long records;
+    private long bytes;
+
+    private ShardFile(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getRecords() {
+      return records;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+  }
+
+  private final class Shard implements RecordPipeline.BatchWriter {
+    private final int worker;
+    private final List<ShardFile> files = new ArrayList<>();
+    private ChannelSink sink;
+    private ShardFile current;
+
+    private Shard(int worker) {
+      this.worker = worker;
+    }
+
+    // Split the batch at record boundaries so no file goes over its limits
+    @Override
+    public void write(RecordBuffer batch, int records) throws IOException {
+      if (compressed) {
+        writeWhole(batch, records);
+        return;
+      }
+      byte[] bytes = batch.array();
+      int end = batch.size();
+      int pos = 0;
+      while (pos < end) {
+        if (sink == null) {
+          roll();
+        }
+        int cut = pos;
+        long fileRecords = current.records;
+        long fileBytes = current.bytes;
+        while (cut < end && fileRecords < maxRecords) {
+          int next = nextLine(bytes, cut, end);
+          if (fileRecords > 0 && fileBytes + next - cut > maxBytes) {
+            break;
+          }
+          fileRecords++;
+          fileBytes += next - cut;
+          cut = next;
+        }
+        sink.write(bytes, pos, cut - pos);
+        current.records = fileRecords;
+        current.bytes = fileBytes;
+        if (cut < end) {
+          finish();
+        }
+        pos = cut;
+      }
+    }
+
+    // A compressed batch cannot be cut, so a file may only go over its limits with its first batch
+    private void writeWhole(RecordBuffer batch, int records) throws IOException {
+      if (sink != null && (current.records + records > maxRecords || current.bytes + batch.size() > maxBytes)) {
+        finish();
+      }
+      if (sink == null) {
+        roll();
+      }
+      sink.write(batch);
+      current.records += records;
+      current.bytes += batch.size();
+    }
+
+    private void roll() throws IOException {
+      String name = String.format("part-%05d-%05d%s", worker, files.size(), extension);
+      sink = new ChannelSink(FileChannel.open(directory.resolve(name), StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), SHARD_BUFFER_SIZE);
+      current = new ShardFile(name);
+      files.add(current);
+      if (header != null) {
+        sink.write(header, 0, header.length);
+        current.bytes = header.length;
+      }
+    }
+
+    private void finish() throws IOException {
+      if (sink != null) {
+        sink.close();
+        sink = null;
+      }
+    }
+  }
+
+  private static int nextLine(byte[] bytes, int from, int end) {
+    for (int i = from; i < end; i++) {
+      if (bytes[i] == '\n') {
+        return i + 1;
+      }
+    }
+    return end;
+  }
+
+}
@@ -0,0 +1,426 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.AliasTable;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a template into a tree of {@link FieldGenerator}s, so function strings are parsed once
+ * per template rather than once per generated value.
+ */
+public final class TemplateCompiler {
+
+  private TemplateCompiler() {
+    //not called
+  }
+
+  public static FieldGenerator compile(String template, int nestedArraySize) {
+    return compile(new JsonParser().parse(template), nestedArraySize);
+  }
+
+  // unique(...) fields track their values in Bloom filters of uniqueBloomBytes each, sized for
+  // uniqueExpected values, instead of exact sets
+  public static FieldGenerator compile(String template, int nestedArraySize, long uniqueBloomBytes,
+                                       long uniqueExpected) {
+    FieldGenerator generator = compile(template, nestedArraySize);
+    FieldGenerators.useBloomFilters(generator, uniqueBloomBytes, uniqueExpected);
+    return generator;
+  }
+
+  // The template's sequences are numbered from the record index once the whole tree is known
+  public static FieldGenerator compile(JsonElement jsonElement, int nestedArraySize) {
+    FieldGenerator generator = compileElement(jsonElement, nestedArraySize);
+    FieldGenerators.countSequenceDraws(generator);
+    return generator;
+  }
+
+  private static FieldGenerator compileElement(JsonElement jsonElement, int nestedArraySize) {
+    if (jsonElement.isJsonObject()) {
+      return compileObject(jsonElement.getAsJsonObject(), nestedArraySize);
+    } else if (jsonElement.isJsonArray()) {
+      return compileArray(jsonElement.getAsJsonArray(), nestedArraySize);
+    } else if (jsonElement.isJsonPrimitive()) {
+      return compilePrimitive(jsonElement.getAsJsonPrimitive());
+    }
+    return new FieldGenerators.Null();
+  }
+
+  private static FieldGenerator compileObject(JsonObject jsonObject, int nestedArraySize) {
+    List<String> names = new ArrayList<>();
+    List<FieldGenerator> values = new ArrayList<>();
+    for (Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
+      names.add(entry.getKey());
+      values.add(compileElement(entry.getValue(), nestedArraySize));
+    }
+    return new FieldGenerators.ObjectNode(names.toArray(new String[0]), values.toArray(new FieldGenerator[0]));
+  }
+
+  // Only objects and primitives are generated inside arrays
+  private static FieldGenerator compileArray(JsonArray jsonArray, int nestedArraySize) {
+    List<FieldGenerator> elements = new ArrayList<>();
+    for (JsonElement element : jsonArray) {
+      if (element.isJsonObject()) {
+        elements.add(compileObject(element.getAsJsonObject(), nestedArraySize));
+      } else if (element.isJsonPrimitive()) {
+        elements.add(compilePrimitive(element.getAsJsonPrimitive()));
+      }
+    }
+    return new FieldGenerators.ArrayNode(elements.toArray(new FieldGenerator[0]), nestedArraySize);
+  }
+
+  private static FieldGenerator compilePrimitive(JsonPrimitive primitive) {
+    if (primitive.isBoolean()) {
+      return new FieldGenerators.RandomBoolean();
+    } else if (primitive.isString()) {
+      return compileFunction(primitive.getAsString());
+    } else if (primitive.isNumber()) {
+      return new FieldGenerators.RandomInt(0, Integer.MAX_VALUE);
+    }
+    return new FieldGenerators.Literal(primitive.toString());
+  }
+
+  // Compile a function expression such as int(1, 10) or cat(alpha, SPACE, int)
+  static FieldGenerator compileFunction(String value) {
+    value = value.trim();
+    int open = value.indexOf('(');
+    if (open < 0) {
+      return compileKeyword(value);
+    }
+    int close = value.lastIndexOf(')');
+    if (close < open) {
+      throw new IllegalArgumentException("unbalanced parentheses: " + value);
+    }
+    String name = value.substring(0, open).trim();
+    String body = value.substring(open + 1, close);
+    String[] args = body.trim().isEmpty() ? new String[0] : body.split(",");
+    switch (name) {
+      case "random":
+        return new FieldGenerators.Choice(toStrings(RandomData.parseRandomValues(args)));
+      case "weighted":
+        return compileWeighted(args);
+      case "zipf":
+        return compileZipf(args);
+      case "normal":
+        return compileNormal(args);
+      case "exp":
+        return compileExponential(args);
+      case "json":
+        return compileNestedJson(body);
+      case "unique":
+        return new FieldGenerators.Unique(compileFunction(body));
+      case "ref":
+        return new FieldGenerators.Ref(KeyFile.open(body.trim()));
+      case "int":
+        return compileInt(args);
+      case "long":
+        return compileLong(args);
+      case "double":
+        return compileDouble(args);
+      case "datetime_seq":
+        return compileDateTimeSequence(args);
+      case "datetime":
+        return compileDateTime(args);
+      case "datetime:simple":
+        return compileRandomDateTime(stripQuotes(args), DateTimes.ISO_RANGE, DateTimes.SIMPLE_PATTERN, ZoneOffset.UTC);
+      case "date":
+        return compileRandomDateTime(stripQuotes(args), DateTimes.DATE_RANGE, DateTimes.DATE_PATTERN, ZoneOffset.UTC);
+      case "alpha":
+        return new FieldGenerators.Alpha(parseLength(args));
+      case "alphanumeric":
+        return new FieldGenerators.AlphaNumeric(parseLength(args));
+      case "qs":
+        return new FieldGenerators.Quoted(compileFunction(body));
+      case "cat":
+        return compileConcat(body);
+      case "seq":
+        return new FieldGenerators.Sequence(Long.parseLong(body.trim()));
+      case "upper":
+        return new FieldGenerators.Upper(compileFunction(body));
+      case "lower":
+        return new FieldGenerators.Lower(compileFunction(body));
+      default:
+        // return the passed value as is
+        return new FieldGenerators.Literal(RandomData.stripQuotes(value));
+    }
+  }
+
+  private static FieldGenerator compileKeyword(String value) {
+    String keyword = RandomData.stripQuotes(value);
+    switch (keyword) {
+      case "int":
+        return new FieldGenerators.RandomInt(0, Integer.MAX_VALUE);
+      case "long":
+        return new FieldGenerators.RandomLong(0, Long.MAX_VALUE);
+      case "double":
+        return new FieldGenerators.RandomDouble(0, Double.MAX_VALUE);
+      case "datetime":
+        return compileRandomDateTime(DateTimes.ISO_RANGE, DateTimes.ISO_RANGE, DateTimes.ISO_PATTERN, ZoneOffset.UTC);
+      case "date":
+        return compileRandomDateTime(DateTimes.DATE_RANGE, DateTimes.DATE_RANGE, DateTimes.DATE_PATTERN, ZoneOffset.UTC);
+      case "alpha":
+        return new FieldGenerators.Alpha(20);
+      case "alphanumeric":
+        return new FieldGenerators.AlphaNumeric(20);
+      case "uuid":
+        return new FieldGenerators.Uuid();
+      case "seq":
+        return new FieldGenerators.Sequence(1);
+      default:
+        return new FieldGenerators.Literal(keyword);
+    }
+  }
+
+  private static FieldGenerator compileInt(String[] args) {
+    int min = args.length >= 1 && args.length <= 2 ? Integer.parseInt(args[0].trim()) : 0;
+    int max = args.length == 2 ? Integer.parseInt(args[1].trim()) : Integer.MAX_VALUE;
+    checkRange(min <= max, args);
+    return new FieldGenerators.RandomInt(min, max);
+  }
+
+  private static FieldGenerator compileLong(String[] args) {
+    long min = args.length >= 1 && args.length <= 2 ? Long.parseLong(args[0].trim()) : 0;
+    long max = args.length == 2 ? Long.parseLong(args[1].trim()) : Long.MAX_VALUE;
+    checkRange(min <= max, args);
+    return new FieldGenerators.RandomLong(min, max);
+  }
+
+  private static FieldGenerator compileDouble(String[] args) {
+    double min = args.length >= 1 && args.length <= 2 ? Double.parseDouble(args[0].trim()) : 0;
+    double max = args.length == 2 ? Double.parseDouble(args[1].trim()) : Double.MAX_VALUE;
+    checkRange(min <= max, args);
+    return new FieldGenerators.RandomDouble(min, max);
+  }
+
+  // weighted(CA:40, NY:25, TX:35): options with relative weights
+  private static FieldGenerator compileWeighted(String[] args) {
+    String[] options = new String[args.length];
+    double[] weights = new double[args.length];
+    for (int i = 0; i < args.length; i++) {
+      int colon = args[i].lastIndexOf(':');
+      if (colon < 0) {
+        throw new IllegalArgumentException("expected weighted(option:weight, ...): " + String.join(",", args));
+      }
+      options[i] = RandomData.stripQuotes(args[i].substring(0, colon).trim());
+      weights[i] = Double.parseDouble(args[i].substring(colon + 1).trim());
+    }
+    return new FieldGenerators.Choice(options, new AliasTable(weights));
+  }
+
+  // zipf(n[, s]): ranks 1..n with exponent s, 1 by default
+  private static FieldGenerator compileZipf(String[] args) {
+    if (args.length < 1 || args.length > 2) {
+      throw new IllegalArgumentException("expected zipf(n[, s]): " + String.join(",", args));
+    }
+    double exponent = args.length == 2 ? Double.parseDouble(args[1].trim()) : 1;
+    return new FieldGenerators.Zipf(Long.parseLong(args[0].trim()), exponent);
+  }
+
+  // normal(mu, sigma)
+  private static FieldGenerator compileNormal(String[] args) {
+    if (args.length != 2) {
+      throw new IllegalArgumentException("expected normal(mu, sigma): " + String.join(",", args));
+    }
+    double sigma = Double.parseDouble(args[1].trim());
+    if (!(sigma >= 0)) {
+      throw new IllegalArgumentException("sigma must not be negative: " + String.join(",", args));
+    }
+    return new FieldGenerators.Normal(Double.parseDouble(args[0].trim()), sigma);
+  }
+
+  // exp(lambda): exponential with rate lambda, mean 1/lambda
+  private static FieldGenerator compileExponential(String[] args) {
+    double lambda = args.length == 1 ? Double.parseDouble(args[0].trim()) : 0;
+    if (!(lambda > 0)) {
+      throw new IllegalArgumentException("expected exp(lambda) with lambda > 0: " + String.join(",", args));
+    }
+    return new FieldGenerators.Exponential(lambda);
+  }
+
+  private static void checkRange(boolean valid, String[] args) {
+    if (!valid) {
+      throw new IllegalArgumentException("min is greater than max: " + String.join(",", args));
+    }
+  }
+
+  // datetime(now[+/-offset], format, zone[, unit]) is relative to the current time,
+  // datetime(min, max[, format[, zone or unit]]) and datetime(format[, zone]) are random in a range
+  private static FieldGenerator compileDateTime(String[] args) {
+    if (args.length == 0) {
+      return compileRandomDateTime(DateTimes.ISO_RANGE, DateTimes.ISO_RANGE, DateTimes.ISO_PATTERN, ZoneOffset.UTC);
+    }
+    String first = args[0].trim();
+    boolean range = args.length >= 2 && (args[1].trim().startsWith("now")
+        || isDateTime(first, args.length > 2 ? args[2] : null));
+    if (first.startsWith("now") && !range) {
+      return compileNowDateTime(args);
+    }
+    if (range) {
+      String pattern = args.length > 2 ? args[2] : DateTimes.ISO_PATTERN;
+      ZoneId zone = ZoneOffset.UTC;
+      ChronoUnit unit = ChronoUnit.SECONDS;
+      if (args.length > 3 && isUnit(args[3])) {
+        unit = DateTimes.parseUnit(args[3]);
+      } else if (args.length > 3) {
+        zone = ZoneId.of(args[3].trim());
+      }
+      return compileRandomDateTime(new String[] {args[0], args[1]}, DateTimes.ISO_RANGE, pattern, zone, unit);
+    }
+    ZoneId zone = args.length > 1 ? ZoneId.of(args[1].trim()) : ZoneOffset.UTC;
+    return compileRandomDateTime(DateTimes.ISO_RANGE, DateTimes.ISO_RANGE, args[0], zone);
+  }
+
+  private static boolean isDateTime(String value, String pattern) {
+    if (pattern != null) {
+      try {
+        DateTimes.parse(value, DateTimes.formatter(pattern), ZoneOffset.UTC, ChronoUnit.MILLIS);
+        return true;
+      } catch (IllegalArgumentException e) {
+        return false;
+      }
+    }
+    return DateTimes.parseIso(value, ZoneOffset.UTC) != null;
+  }
+
+  private static boolean isUnit(String value) {
+    try {
+      DateTimes.parseUnit(value);
+      return true;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private static FieldGenerator compileRandomDateTime(String[] args, String[] defaults, String pattern, ZoneId zone) {
+    return compileRandomDateTime(args, defaults, pattern, zone, ChronoUnit.SECONDS);
+  }
+
+  // args[0] - lower bound, args[1] - upper bound (default now); both parsed once into epoch millis,
+  // now+/-offset bounds are in the given unit
+  private static FieldGenerator compileRandomDateTime(String[] args, String[] defaults, String pattern, ZoneId zone,
+      ChronoUnit unit) {
+    DateTimeFormatter formatter = DateTimes.formatter(pattern, zone);
+    String[] bounds = args.length == 0 || args.length > 2 ? defaults : args;
+    long min = DateTimes.parse(bounds[0], formatter, zone, unit).toInstant().toEpochMilli();
+    long max = bounds.length > 1 ? DateTimes.parse(bounds[1], formatter, zone, unit).toInstant().toEpochMilli()
+        : System.currentTimeMillis();
+    if (min > max) {
+      throw new IllegalArgumentException("min is greater than max: " + String.join(",", bounds));
+    }
+    return new FieldGenerators.RandomDateTime(min, max, formatter);
+  }
+
+  // args[0] - now or now+/-offset, args[1] - output date format
+  // args[2] - timezone id, eg: "America/Los_Angeles"
+  // args[3] - offset unit second/minute/hour/day/month/year
+  private static FieldGenerator compileNowDateTime(String[] args) {
+    if (args.length < 3) {
+      throw new IllegalArgumentException("expected datetime(now[+/-offset], format, zone[, unit]): "
+          + String.join(",", args));
+    }
+    TimestampFormat format = new TimestampFormat(args[1], ZoneId.of(args[2].trim()));
+    int offset = DateTimes.parseNowOffset(args[0].trim());
+    ChronoUnit unit = args.length > 3 ? DateTimes.parseUnit(args[3]) : ChronoUnit.SECONDS;
+    return new FieldGenerators.NowDateTime(format, unit, offset);
+  }
+
+  // args[0] - start datetime or now-offset, args[1] - end datetime or now
+  // args[2] - output date format
+  // args[3] - timezone id, eg: "America/Los_Angeles"
+  // args[4] - increment millisecond/second/minute/hour/day/month/year
+  private static FieldGenerator compileDateTimeSequence(String[] args) {
+    if (args.length < 5) {
+      throw new IllegalArgumentException("expected datetime_seq(start, end, format, zone, unit): "
+          + String.join(",", args));
+    }
+    ZoneId zone = ZoneId.of(args[3].trim());
+    TimestampFormat format = new TimestampFormat(args[2], zone);
+    ChronoUnit unit = DateTimes.parseUnit(args[4]);
+    return new FieldGenerators.DateTimeSequence(DateTimes.parse(args[0], format.formatter(), zone, unit),
+        DateTimes.parse(args[1], format.formatter(), zone, unit), format, unit);
+  }
+
+  // json({...}, count, nested)
+  private static FieldGenerator compileNestedJson(String body) {
+    int end = body.lastIndexOf('}');
+    if (end < 0) {
+      throw new IllegalArgumentException("expected json({...}, count, nested): " + body);
+    }
+    String subJson = body.substring(0, end + 1);
+    String[] jsonArgs = body.substring(end + 1).replaceFirst("^\\s*,", "").split(",");
+    // the count is still validated, but only ever one nested value was kept per call
+    Long.parseLong(jsonArgs[0].trim());
+    FieldGenerator template = compile(subJson, Integer.parseInt(jsonArgs[1].trim()));
+    if (template.getType() != FieldGenerator.Type.OBJECT) {
+      throw new IllegalArgumentException("expected json({...}, count, nested): " + body);
+    }
+    return new FieldGenerators.NestedJson(template);
+  }
+
+  private static FieldGenerator compileConcat(String body) {
+    List<FieldGenerator> parts = new ArrayList<>();
+    for (String param : splitArgs(body, ',')) {
+      if (param.equals("SPACE")) { // HACK: for whitespace
+        parts.add(new FieldGenerators.Literal(" "));
+      } else if (param.equals("COMMA")) { // for comma
+        parts.add(new FieldGenerators.Literal(", "));
+      } else {
+        parts.add(compileFunction(param));
+      }
+    }
+    return new FieldGenerators.Concat(parts.toArray(new FieldGenerator[0]));
+  }
+
+  private static int parseLength(String[] args) {
+    return args.length == 0 ? 20 : Integer.parseInt(args[0].trim());
+  }
+
+  private static String[] stripQuotes(String[] args) {
+    String[] stripped = new String[args.length];
+    for (int i = 0; i < args.length; i++) {
+      stripped[i] = RandomData.stripQuotes(args[i]);
+    }
+    return stripped;
+  }
+
+  private static String[] toStrings(List<Object> values) {
+    String[] strings = new String[values.size()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = values.get(i).toString();
+    }
+    return strings;
+  }
+
+  // Split on delimiter, ignoring delimiters nested inside parentheses
+  static String[] splitArgs(String value, char delimiter) {
+    List<String> result = new ArrayList<>();
+    StringBuilder sb = new StringBuilder();
+    int nest = 0;
+    for (int i = 0; i < value.length(); ++i) {
+      char ch = value.charAt(i);
+      if (ch == delimiter && nest == 0) {
+        result.add(sb.toString().trim());
+        sb.setLength(0);
+        continue;
+      } else if (ch == '(') {
+        ++nest;
+      } else if (ch == ')') {
+        --nest;
+      }
+      sb.append(ch);
+    }
+    result.add(sb.toString().trim());
+    return result.toArray(new String[result.size()]);
+  }
+
+}
@@ -0,0 +1,209 @@
+package com.orange.datagen;
+
+import com.orange.datagen.util.RecordBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A datetime pattern and zone resolved once per template field. The pattern is split around its
+ * second ('s') and fraction ('S') fields; everything else only changes once a minute, so each
+ * worker's {@link Cache} formats it once per minute and writes just the seconds and millis digits
+ * for the values in between. Patterns with nano or milli-of-day fields are formatted in full.
+ */
+final class TimestampFormat {
+
+  private static final int TEXT = 0;
+  private static final int SECONDS = 1;
+  private static final int FRACTION = 2;
+
+  private final DateTimeFormatter formatter;
+  private final ZoneRules rules;
+  // null when the pattern has to be formatted in full
+  private final int[] kinds;
+  private final int[] widths;
+  private final DateTimeFormatter[] texts;
+
+  TimestampFormat(String pattern, ZoneId zone) {
+    this.formatter = DateTimes.formatter(pattern, zone);
+    this.rules = zone.getRules();
+    List<int[]> segments = new ArrayList<>();
+    List<DateTimeFormatter> texts = new ArrayList<>();
+    if (split(pattern, zone, segments, texts)) {
+      this.kinds = new int[segments.size()];
+      this.widths = new int[segments.size()];
+      for (int i = 0; i < kinds.length; i++) {
+        kinds[i] = segments.get(i)[0];
+        widths[i] = segments.get(i)[1];
+      }
+      this.texts = texts.toArray(new DateTimeFormatter[0]);
+    } else {
+      this.kinds = null;
+      this.widths = null;
+      this.texts = null;
+    }
+  }
+
+  DateTimeFormatter formatter() {
+    return formatter;
+  }
+
+  boolean isCached() {
+    return kinds != null;
+  }
+
+  // Per-worker state; not thread-safe
+  Cache newCache() {
+    return new Cache();
+  }
+
+  // Split the pattern into text segments and at most one seconds and one fraction field
+  private static boolean split(String pattern, ZoneId zone, List<int[]> segments, List<DateTimeFormatter> texts) {
+    StringBuilder text = new StringBuilder();
+    boolean seconds = false;
+    boolean fraction = false;
+    int i = 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '\'') {
+        int end = closingQuote(pattern, i + 1);
+        if (end < 0) {
+          return false;
+        }
+        text.append(pattern, i, end + 1);
+        i = end + 1;
+      } else if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) {
+        int end = i;
+        while (end < pattern.length() && pattern.charAt(end) == c) {
+          end++;
+        }
+        int width = end - i;
+        if (c == 'n' || c == 'N' || c == 'A') {
+          return false;
+        }
+        if (c == 's' || c == 'S') {
+          if ((c == 's' && (seconds || width > 2)) || (c == 'S' && (fraction || width > 9))) {
+            return false;
+          }
+          seconds |= c == 's';
+          fraction |= c == 'S';
+          addText(text, zone, segments, texts);
+          segments.add(new int[] {c == 's' ? SECONDS : FRACTION, width});
+        } else {
+          text.append(pattern, i, end);
+        }
+        i = end;
+      } else if (c == '[' || c == ']' || c == '{' || c == '}' || c == '#') {
+        // optional sections and reserved characters
+        return false;
+      } else {
+        text.append(c);
+        i++;
+      }
+    }
+    addText(text, zone, segments, texts);
+    return true;
+  }
+
+  private static int closingQuote(String pattern, int from) {
+    for (int i = from; i < pattern.length(); i++) {
+      if (pattern.charAt(i) == '\'') {
+        if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+          i++;
+        } else {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static void addText(StringBuilder text, ZoneId zone, List<int[]> segments, List<DateTimeFormatter> texts) {
+    if (text.length() > 0) {
+      segments.add(new int[] {TEXT, texts.size()});
+      texts.add(DateTimeFormatter.ofPattern(text.toString()).withZone(zone));
+      text.setLength(0);
+    }
+  }
+
+  /**
+   * Formatted text segments of the last minute seen by one worker.
+   */
+  final class Cache {
+    private final byte[][] formatted = texts == null ? null : new byte[texts.length][];
+    private final RecordBuffer scratch = new RecordBuffer(64);
+    private long minute = Long.MIN_VALUE;
+
+    void write(long epochMillis, RecordBuffer out) {
+      long minute = Math.floorDiv(epochMillis, 60_000L);
+      if (kinds == null || (minute != this.minute && !fill(minute))) {
+        out.appendUtf8(formatter.format(Instant.ofEpochMilli(epochMillis)));
+        return;
+      }
+      int millis = (int) Math.floorMod(epochMillis, 60_000L);
+      for (int i = 0; i < kinds.length; i++) {
+        switch (kinds[i]) {
+          case TEXT:
+            out.append(formatted[widths[i]]);
+            break;
+          case SECONDS:
+            appendDigits(out, millis / 1000, widths[i] == 2 ? 2 : 1);
+            break;
+          default:
+            appendFraction(out, millis % 1000, widths[i]);
+        }
+      }
+    }
+
+    String format(long epochMillis) {
+      scratch.reset();
+      write(epochMillis, scratch);
+      return scratch.toString();
+    }
+
+    // Format the text segments once for the minute; false if the zone offset changes within
+    // it or is not a whole number of minutes, in which case the minute is formatted in full
+    private boolean fill(long minute) {
+      this.minute = Long.MIN_VALUE;
+      Instant start = Instant.ofEpochSecond(minute * 60);
+      int offset = rules.getOffset(start).getTotalSeconds();
+      if (offset % 60 != 0 || offset != rules.getOffset(start.plusSeconds(59)).getTotalSeconds()) {
+        return false;
+      }
+      ZonedDateTime time = ZonedDateTime.ofInstant(start, formatter.getZone());
+      for (int i = 0; i < texts.length; i++) {
+        formatted[i] = texts[i].format(time).getBytes(StandardCharsets.UTF_8);
+      }
+      this.minute = minute;
+      return true;
+    }
+  }
+
+  private static void appendDigits(RecordBuffer out, int value, int minWidth) {
+    if (minWidth == 2 && value < 10) {
+      out.append('0');
+    }
+    out.append(value);
+  }
+
+  // First width digits of the nano-of-second, which is millis * 10^6
+  private static void appendFraction(RecordBuffer out, int millis, int width) {
+    out.append((char) ('0' + millis / 100));
+    if (width > 1) {
+      out.append((char) ('0' + millis / 10 % 10));
+    }
+    if (width > 2) {
+      out.append((char) ('0' + millis % 10));
+    }
+    for (int i = 3; i < width; i++) {
+      out.append('0');
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+package com.orange.datagen.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.SplittableRandom;
+
+/**
+ * Walker's alias method for drawing an index with given weights in constant time: one uniform
+ * column and one biased coin. The tables are built once, in O(n), with Vose's stable variant.
+ */
+public final class AliasTable {
+
+  private final double[] probability;
+  private final int[] alias;
+
+  public AliasTable(double[] weights) {
+    int n = weights.length;
+    if (n == 0) {
+      throw new IllegalArgumentException("no weights");
+    }
+    double total = 0;
+    for (double weight : weights) {
+      if (!(weight >= 0) || Double.isInfinite(weight)) {
+        throw new IllegalArgumentException("weights must be finite and not negative: " + weight);
+      }
+      total += weight;
+    }
+    if (total <= 0) {
+      throw new IllegalArgumentException("weights must not all be zero");
+    }
+    this.probability = new double[n];
+    this.alias = new int[n];
+    double[] scaled = new double[n];
+    Deque<Integer> small = new ArrayDeque<>();
+    Deque<Integer> large = new ArrayDeque<>();
+    for (int i = 0; i < n; i++) {
+      scaled[i] = weights[i] * n / total;
+      (scaled[i] < 1 ? small : large).push(i);
+    }
+    while (!small.isEmpty() && !large.isEmpty()) {
+      int less = small.pop();
+      int more = large.pop();
+      probability[less] = scaled[less];
+      alias[less] = more;
+      scaled[more] = scaled[more] + scaled[less] - 1;
+      (scaled[more] < 1 ? small : large).push(more);
+    }
+    // what is left is 1 up to rounding
+    while (!large.isEmpty()) {
+      probability[large.pop()] = 1;
+    }
+    while (!small.isEmpty()) {
+      probability[small.pop()] = 1;
+    }
+  }
+
+  public int size() {
+    return probability.length;
+  }
+
+  public int next(SplittableRandom random) {
+    int column = random.nextInt(probability.length);
+    return random.nextDouble() < probability[column] ? column : alias[column];
+  }
+
+}
@@ -0,0 +1,204 @@
+package com.orange.datagen.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Set of 64-bit value fingerprints shared by all worker threads, used to reject values that were
+ * already generated. The exact set keeps every fingerprint in primitive open-addressing tables;
+ * the Bloom filter uses a fixed amount of memory and may report some new values as seen, which
+ * only costs an extra draw.
+ */
+public interface FingerprintSet {
+
+  // Add a fingerprint; false if it was (or, for a Bloom filter, may have been) added before
+  boolean add(long fingerprint);
+
+  // Fingerprints added
+  long size();
+
+  // Bytes of the tables or bit array
+  long memoryBytes();
+
+  static FingerprintSet exact() {
+    return new Exact();
+  }
+
+  static FingerprintSet bloom(long bytes, long expected) {
+    return new Bloom(bytes, expected);
+  }
+
+  // 64-bit hash of bytes[from, to), eight bytes at a time
+  static long fingerprint(byte[] bytes, int from, int to) {
+    long h = 0x9E3779B97F4A7C15L ^ (to - from);
+    int i = from;
+    for (; i + 8 <= to; i += 8) {
+      long word = (bytes[i] & 0xFFL) | (bytes[i + 1] & 0xFFL) << 8 | (bytes[i + 2] & 0xFFL) << 16
+          | (bytes[i + 3] & 0xFFL) << 24 | (bytes[i + 4] & 0xFFL) << 32 | (bytes[i + 5] & 0xFFL) << 40
+          | (bytes[i + 6] & 0xFFL) << 48 | (bytes[i + 7] & 0xFFL) << 56;
+      h = Long.rotateLeft(h ^ mix(word), 27) * 0x9E3779B97F4A7C15L;
+    }
+    long tail = 0;
+    for (int shift = 0; i < to; i++, shift += 8) {
+      tail |= (bytes[i] & 0xFFL) << shift;
+    }
+    return mix(h ^ mix(tail));
+  }
+
+  // SplitMix64 finalizer
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Fingerprints spread over independently locked stripes, each an open-addressing table of longs
+   * that doubles at 3/4 load, so memory follows the number of values and threads rarely meet on
+   * the same lock. Zero marks an empty slot, so the fingerprint 0 is stored as 1.
+   */
+  final class Exact implements FingerprintSet {
+    private static final int STRIPES = 256;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private Exact() {
+      for (int i = 0; i < STRIPES; i++) {
+        stripes[i] = new Stripe();
+      }
+    }
+
+    @Override
+    public boolean add(long fingerprint) {
+      long key = fingerprint == 0 ? 1 : fingerprint;
+      Stripe stripe = stripes[(int) (key >>> 56)];
+      synchronized (stripe) {
+        return stripe.add(key);
+      }
+    }
+
+    @Override
+    public long size() {
+      long size = 0;
+      for (Stripe stripe : stripes) {
+        synchronized (stripe) {
+          size += stripe.size;
+        }
+      }
+      return size;
+    }
+
+    @Override
+    public long memoryBytes() {
+      long bytes = 0;
+      for (Stripe stripe : stripes) {
+        synchronized (stripe) {
+          bytes += (long) stripe.table.length * Long.BYTES;
+        }
+      }
+      return bytes;
+    }
+
+    private static final class Stripe {
+      long[] table = new long[INITIAL_CAPACITY];
+      int size;
+
+      boolean add(long key) {
+        if (!insert(table, key)) {
+          return false;
+        }
+        if (++size > table.length / 4 * 3) {
+          long[] grown = new long[table.length * 2];
+          for (long old : table) {
+            if (old != 0) {
+              insert(grown, old);
+            }
+          }
+          table = grown;
+        }
+        return true;
+      }
+
+      // Linear probing from the low bits; the high bits already chose the stripe
+      private static boolean insert(long[] table, long key) {
+        int mask = table.length - 1;
+        for (int slot = (int) key & mask; ; slot = (slot + 1) & mask) {
+          if (table[slot] == 0) {
+            table[slot] = key;
+            return true;
+          }
+          if (table[slot] == key) {
+            return false;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Bloom filter over a fixed bit array. The number of probes is chosen for the expected number of
+   * values. All probes of one fingerprint are tested and set under one of a set of striped locks
+   * chosen by the fingerprint, so two threads adding the same value cannot both see it as new;
+   * bits are set with compare-and-swap because the words are shared by all stripes.
+   */
+  final class Bloom implements FingerprintSet {
+    private static final int LOCKS = 1024;
+
+    private final Object[] locks = new Object[LOCKS];
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int probes;
+    private final LongAdder size = new LongAdder();
+
+    private Bloom(long bytes, long expected) {
+      if (bytes < Long.BYTES || bytes / Long.BYTES > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Bloom filter size must be between 8 bytes and 16G");
+      }
+      this.words = new AtomicLongArray((int) (bytes / Long.BYTES));
+      this.bits = (long) words.length() * Long.SIZE;
+      // k = m/n ln 2 minimises false positives for n values
+      this.probes = (int) Math.max(1, Math.min(16, Math.round((double) bits / Math.max(1, expected) * Math.log(2))));
+      for (int i = 0; i < LOCKS; i++) {
+        locks[i] = new Object();
+      }
+    }
+
+    @Override
+    public boolean add(long fingerprint) {
+      long h2 = mix(fingerprint) | 1;
+      boolean added = false;
+      synchronized (locks[(int) (h2 >>> 1) & (LOCKS - 1)]) {
+        for (int i = 0; i < probes; i++) {
+          long bit = Math.floorMod(fingerprint + i * h2, bits);
+          int word = (int) (bit >>> 6);
+          long mask = 1L << bit;
+          long old = words.get(word);
+          while ((old & mask) == 0) {
+            long witness = words.compareAndExchange(word, old, old | mask);
+            if (witness == old) {
+              added = true;
+              break;
+            }
+            old = witness;
+          }
+        }
+      }
+      if (added) {
+        size.increment();
+      }
+      return added;
+    }
+
+    @Override
+    public long size() {
+      return size.sum();
+    }
+
+    @Override
+    public long memoryBytes() {
+      return bits / 8;
+    }
+  }
+
+}
@@ -0,0 +1,292 @@
+package com.orange.datagen.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable UTF-8 byte buffer that generated records are written into. Reset and reuse it
+ * between records or batches instead of allocating intermediate strings.
+ */
+public final class RecordBuffer {
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] MIN_INT = "-2147483648".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] MIN_LONG = "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+
+  private byte[] buf;
+  private int size;
+
+  public RecordBuffer() {
+    this(1024);
+  }
+
+  public RecordBuffer(int capacity) {
+    buf = new byte[Math.max(capacity, 16)];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public byte[] array() {
+    return buf;
+  }
+
+  public void reset() {
+    size = 0;
+  }
+
+  public void setSize(int size) {
+    if (size < 0 || size > this.size) {
+      throw new IndexOutOfBoundsException("size " + size + " outside [0," + this.size + "]");
+    }
+    this.size = size;
+  }
+
+  // Take in length bytes written straight into array() after the end, within its capacity
+  public void advance(int length) {
+    if (length < 0 || size + length > buf.length) {
+      throw new IndexOutOfBoundsException("length " + length + " past the capacity " + buf.length);
+    }
+    size += length;
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (capacity > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(capacity, buf.length << 1));
+    }
+  }
+
+  public RecordBuffer append(byte b) {
+    ensureCapacity(size + 1);
+    buf[size++] = b;
+    return this;
+  }
+
+  public RecordBuffer append(char ascii) {
+    return append((byte) ascii);
+  }
+
+  public RecordBuffer append(byte[] bytes) {
+    return append(bytes, 0, bytes.length);
+  }
+
+  public RecordBuffer append(byte[] bytes, int offset, int length) {
+    ensureCapacity(size + length);
+    System.arraycopy(bytes, offset, buf, size, length);
+    size += length;
+    return this;
+  }
+
+  public RecordBuffer append(RecordBuffer other) {
+    return append(other.buf, 0, other.size);
+  }
+
+  public RecordBuffer append(boolean value) {
+    return appendAscii(value ? "true" : "false");
+  }
+
+  public RecordBuffer append(int value) {
+    if (value == Integer.MIN_VALUE) {
+      return append(MIN_INT);
+    }
+    return append((long) value);
+  }
+
+  public RecordBuffer append(long value) {
+    if (value == Long.MIN_VALUE) {
+      return append(MIN_LONG);
+    }
+    ensureCapacity(size + 20);
+    if (value < 0) {
+      buf[size++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long v = value; v >= 10; v /= 10) {
+      digits++;
+    }
+    int pos = size + digits;
+    do {
+      buf[--pos] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value != 0);
+    size += digits;
+    return this;
+  }
+
+  public RecordBuffer append(double value) {
+    return appendAscii(Double.toString(value));
+  }
+
+  // Append a string known to contain only ASCII characters
+  public RecordBuffer appendAscii(String s) {
+    int length = s.length();
+    ensureCapacity(size + length);
+    for (int i = 0; i < length; i++) {
+      buf[size++] = (byte) s.charAt(i);
+    }
+    return this;
+  }
+
+  public RecordBuffer appendUtf8(CharSequence s) {
+    int length = s.length();
+    ensureCapacity(size + length);
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        if (size == buf.length) {
+          ensureCapacity(size + length - i);
+        }
+        buf[size++] = (byte) c;
+      } else {
+        i = appendMultiByte(s, i, c);
+      }
+    }
+    return this;
+  }
+
+  private int appendMultiByte(CharSequence s, int i, char c) {
+    ensureCapacity(size + 4);
+    if (c < 0x800) {
+      buf[size++] = (byte) (0xc0 | (c >> 6));
+      buf[size++] = (byte) (0x80 | (c & 0x3f));
+    } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+      int cp = Character.toCodePoint(c, s.charAt(++i));
+      buf[size++] = (byte) (0xf0 | (cp >> 18));
+      buf[size++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+      buf[size++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+      buf[size++] = (byte) (0x80 | (cp & 0x3f));
+    } else if (Character.isSurrogate(c)) {
+      buf[size++] = '?';
+    } else {
+      buf[size++] = (byte) (0xe0 | (c >> 12));
+      buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+      buf[size++] = (byte) (0x80 | (c & 0x3f));
+    }
+    return i;
+  }
+
+  // Escape bytes written since 'from' as the body of a JSON string, the same way gson does
+  public void escapeJson(int from) {
+    int extra = 0;
+    for (int i = from; i < size; i++) {
+      int b = buf[i] & 0xff;
+      if (b == '"' || b == '\\') {
+        extra += 1;
+      } else if (b < 0x20) {
+        extra += shortEscape(b) != 0 ? 1 : 5;
+      } else if (isLineSeparator(i)) {
+        extra += 3;
+        i += 2;
+      }
+    }
+    if (extra == 0) {
+      return;
+    }
+    ensureCapacity(size + extra);
+    int src = size - 1;
+    int dst = size + extra - 1;
+    while (src >= from) {
+      int b = buf[src] & 0xff;
+      if (b == '"' || b == '\\') {
+        buf[dst--] = (byte) b;
+        buf[dst--] = '\\';
+      } else if (b < 0x20) {
+        byte shortForm = shortEscape(b);
+        if (shortForm != 0) {
+          buf[dst--] = shortForm;
+        } else {
+          buf[dst--] = HEX[b & 0xf];
+          buf[dst--] = HEX[b >> 4];
+          buf[dst--] = '0';
+          buf[dst--] = '0';
+          buf[dst--] = 'u';
+        }
+        buf[dst--] = '\\';
+      } else if ((b == 0xa8 || b == 0xa9) && src - 2 >= from && isLineSeparator(src - 2)) {
+        buf[dst--] = (byte) (b == 0xa8 ? '8' : '9');
+        buf[dst--] = '2';
+        buf[dst--] = '0';
+        buf[dst--] = '2';
+        buf[dst--] = 'u';
+        buf[dst--] = '\\';
+        src -= 2;
+      } else {
+        buf[dst--] = (byte) b;
+      }
+      src--;
+    }
+    size += extra;
+  }
+
+  // Quote bytes written since 'from' as an RFC 4180 field if they contain the delimiter, a quote
+  // or a line break, doubling embedded quotes
+  public void quoteCsv(int from, byte delimiter) {
+    int quotes = 0;
+    boolean quote = false;
+    for (int i = from; i < size; i++) {
+      byte b = buf[i];
+      if (b == '"') {
+        quotes++;
+        quote = true;
+      } else if (b == delimiter || b == '\n' || b == '\r') {
+        quote = true;
+      }
+    }
+    if (!quote) {
+      return;
+    }
+    int end = size + quotes + 2;
+    ensureCapacity(end);
+    int dst = end - 1;
+    buf[dst--] = '"';
+    for (int src = size - 1; src >= from; src--) {
+      buf[dst--] = buf[src];
+      if (buf[src] == '"') {
+        buf[dst--] = '"';
+      }
+    }
+    buf[dst] = '"';
+    size = end;
+  }
+
+  // U+2028 and U+2029 are escaped by gson as well
+  private boolean isLineSeparator(int i) {
+    return i + 2 < size && buf[i] == (byte) 0xe2 && buf[i + 1] == (byte) 0x80
+        && (buf[i + 2] == (byte) 0xa8 || buf[i + 2] == (byte) 0xa9);
+  }
+
+  private static byte shortEscape(int b) {
+    switch (b) {
+      case '\t':
+        return 't';
+      case '\b':
+        return 'b';
+      case '\n':
+        return 'n';
+      case '\r':
+        return 'r';
+      case '\f':
+        return 'f';
+      default:
+        return 0;
+    }
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buf, 0, size);
+  }
+
+  public String toString(int from, int to) {
+    return new String(buf, from, to - from, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public String toString() {
+    return toString(0, size);
+  }
+
+}
@@ -0,0 +1,81 @@
+package com.orange.datagen.util;
+
+import java.util.SplittableRandom;
+
+/**
+ * Zipf distribution over 1..n with P(k) proportional to 1/k^s, sampled by rejection-inversion
+ * (Hormann and Derflinger, 1996). A draw takes a small, constant expected number of uniforms and
+ * no table, so n can be as large as a long.
+ */
+public final class ZipfSampler {
+
+  private final long n;
+  private final double exponent;
+  private final double hIntegralX1;
+  private final double hIntegralN;
+  private final double s;
+
+  public ZipfSampler(long n, double exponent) {
+    if (n < 1 || !(exponent > 0) || Double.isInfinite(exponent)) {
+      throw new IllegalArgumentException("zipf needs n >= 1 and an exponent > 0");
+    }
+    this.n = n;
+    this.exponent = exponent;
+    this.hIntegralX1 = hIntegral(1.5) - 1;
+    this.hIntegralN = hIntegral(n + 0.5);
+    this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+  }
+
+  public long next(SplittableRandom random) {
+    while (true) {
+      double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+      double x = hIntegralInverse(u);
+      long k = (long) (x + 0.5);
+      if (k < 1) {
+        k = 1;
+      } else if (k > n) {
+        k = n;
+      }
+      if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+        return k;
+      }
+    }
+  }
+
+  // h(x) = 1/x^s, the unnormalized density
+  private double h(double x) {
+    return Math.exp(-exponent * Math.log(x));
+  }
+
+  // Antiderivative of h, (x^(1-s) - 1) / (1-s), continuous at s = 1
+  private double hIntegral(double x) {
+    double logX = Math.log(x);
+    return expm1Ratio((1 - exponent) * logX) * logX;
+  }
+
+  private double hIntegralInverse(double x) {
+    double t = x * (1 - exponent);
+    if (t < -1) {
+      // rounding can push t just below -1
+      t = -1;
+    }
+    return Math.exp(log1pRatio(t) * x);
+  }
+
+  // log(1 + x) / x, with its series near 0
+  private static double log1pRatio(double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.log1p(x) / x;
+    }
+    return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+  }
+
+  // (exp(x) - 1) / x, with its series near 0
+  private static double expm1Ratio(double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.expm1(x) / x;
+    }
+    return 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+  }
+
+}
@@ -1,13 +1,17 @@
 package com.orange.datagen;
 
+import com.orange.datagen.util.RecordBuffer;
 import org.junit.Test;
 import org.junit.Assert;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Unit test for CSV generation.
@@ -31,4 +35,68 @@ public class CSVGeneratorTest {
     }
   }*/
 
+  @Test
+  public void testInstancePerDelimiter() {
+    String template = "{\"a\": \"int\", \"b\": \"int\"}";
+    Assert.assertSame(CsvGenerator.getInstance(";"), CsvGenerator.getInstance(";"));
+    Assert.assertEquals("a,b", CsvGenerator.getInstance(",").generateHeader(template));
+    Assert.assertEquals("a;b", CsvGenerator.getInstance(";").generateHeader(template));
+  }
+
+  @Test
+  public void testQuotingAndFlattening() {
+    String template = "{\"id\": \"seq\", \"city\": \"cat(Paris, COMMA, France)\", \"quote\": \"qs(hi)\","
+        + " \"user\": {\"name\": \"alpha(5)\", \"tags\": [\"int(1, 9)\"]}, \"none\": null}";
+    CsvRow row = new CsvRow(TemplateCompiler.compile(template, 2), ",");
+    Assert.assertEquals(Arrays.asList("id", "city", "quote", "user.name", "user.tags.0", "user.tags.1", "none"),
+        Arrays.asList(row.getColumnNames()));
+
+    RecordBuffer buffer = new RecordBuffer();
+    row.write(new GeneratorContext(1L), buffer);
+    String[] fields = buffer.toString().split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1);
+    Assert.assertEquals(7, fields.length);
+    Assert.assertEquals("1", fields[0]);
+    Assert.assertEquals("\"Paris, France\"", fields[1]);
+    Assert.assertEquals("\"\"\"hi\"\"\"", fields[2]);
+    Assert.assertEquals(5, fields[3].length());
+    Assert.assertEquals("", fields[6]);
+  }
+
+  @Test
+  public void testPipelineRows() throws Exception {
+    String template = "{\"id\": \"seq\", \"name\": \"alpha\"}";
+    CsvRow row = new CsvRow(TemplateCompiler.compile(template, 0), "|");
+    List<String> runs = new ArrayList<>();
+    for (int run = 0; run < 2; run++) {
+      RecordBuffer out = new RecordBuffer();
+      new RecordPipeline(row::write, 3, 50, 2, 9L).run(1200, (batch, records) -> out.append(batch));
+      runs.add(out.toString());
+    }
+    Assert.assertEquals(runs.get(0), runs.get(1));
+    Set<String> ids = new HashSet<>();
+    for (String line : runs.get(0).split("\n")) {
+      String[] columns = line.split("\\|");
+      Assert.assertEquals(2, columns.length);
+      Assert.assertTrue(ids.add(columns[0]));
+    }
+    Assert.assertEquals(1200, ids.size());
+  }
+
+  @Test
+  public void testColumnBatchRows() throws Exception {
+    String template = "{\"id\": \"seq\", \"city\": \"Paris, France\", \"none\": null, \"n\": \"int(1,3)\"}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 0);
+    RecordBuffer rows = new RecordBuffer();
+    RecordBuffer columns = new RecordBuffer();
+    CsvRow row = new CsvRow(generator, ";");
+    ColumnBatch batch = new ColumnBatch(generator);
+    byte[] delimiter = {';'};
+    new RecordPipeline(row::write, 1, 25, 2, 4L).run(100, (out, records) -> rows.append(out));
+    new RecordPipeline((context, records, out) -> batch.writeCsv(context, records, delimiter, out), 1, 25, 2, 4L)
+        .run(100, (out, records) -> columns.append(out));
+    Assert.assertEquals(Arrays.asList(row.getColumnNames()), Arrays.asList(batch.getColumnNames()));
+    Assert.assertEquals(rows.toString(), columns.toString());
+    Assert.assertTrue(columns.toString().split("\n")[0].matches("\\d+;Paris, France;;[1-3]"));
+  }
+
 }
@@ -0,0 +1,60 @@
+package com.orange.datagen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+public class CheckpointTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void checkpointedRunResumesWhereItFailed() throws Exception {
+    String template = "{\"id\": \"seq\", \"name\": \"alpha(8)\"}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 0);
+    File output = folder.newFile("events.json");
+    File checkpoint = new File(folder.getRoot(), "events.checkpoint");
+    Map<String, Object> args = new HashMap<>();
+    args.put("output", output.getPath());
+    args.put("checkpoint", checkpoint.getPath());
+    args.put("checkpoint_interval", "0");
+    args.put("mmap", false);
+    Namespace ns = new Namespace(args);
+    RecordPipeline failing = new RecordPipeline((context, out) -> {
+      if (context.firstRecord() >= 500) {
+        throw new IllegalStateException("disk gone");
+      }
+      generator.writeJson(context, out);
+    }, 1, 100, 2, 8L);
+    try {
+      JsonGenerator.writeRecords(ns, failing, 1000, null, ".json", null, template);
+      fail("the run should stop at record 500");
+    } catch (ExecutionException e) {
+      assertEquals("disk gone", e.getCause().getMessage());
+    }
+    assertEquals(500, Checkpoint.load(checkpoint.toPath()).records());
+    // a torn write after the last checkpoint is cut off when resuming
+    Files.write(output.toPath(), "{\"id\": 5".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    assertEquals(500, JsonGenerator.writeRecords(ns, new RecordPipeline(generator, 2, 100, 2, 8L), 1000, null,
+        ".json", null, template));
+    assertTrue(Checkpoint.load(checkpoint.toPath()).complete());
+    StringBuilder expected = new StringBuilder();
+    new RecordPipeline(generator, 1, 100, 2, 8L).run(1000, (batch, records) -> expected.append(batch));
+    assertEquals(expected.toString(), new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8));
+  }
+
+}
@@ -0,0 +1,33 @@
+package com.orange.datagen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ChunkSchedulerTest {
+
+  @Test
+  public void rangesEndingAtTheLastIndexDoNotOverflow() throws Exception {
+    long start = Long.MAX_VALUE - 10;
+    ChunkScheduler scheduler = new ChunkScheduler(start, 10, 64, 5L);
+    assertEquals(1, scheduler.chunks());
+    List<long[]> chunks = new ArrayList<>();
+    scheduler.runOrdered(Arrays.asList(GeneratorContext.unseeded(), GeneratorContext.unseeded()), 2,
+        (context, chunk, skip, records) -> new long[] {context.firstRecord() + skip, records}, chunks::add);
+    assertEquals(1, chunks.size());
+    assertEquals(start, chunks.get(0)[0]);
+    assertEquals(10, chunks.get(0)[1]);
+    try {
+      new ChunkScheduler(start, 11, 64, 5L);
+      fail("a range past Long.MAX_VALUE should be rejected");
+    } catch (IllegalArgumentException e) {
+      assertEquals("start index plus record count is over " + Long.MAX_VALUE, e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+package com.orange.datagen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+public class CompressionTest {
+
+  @Test
+  public void compressedBatchesFormOneStream() throws Exception {
+    FieldGenerator generator = TemplateCompiler.compile("{\"id\":\"uuid\", \"state\":\"random(ca,ny,tx)\"}", 0);
+    StringBuilder plain = new StringBuilder();
+    new RecordPipeline(generator, 3, 100, 2, 4L).run(1000, (batch, records) -> plain.append(batch));
+    for (String codec : new String[] {"gzip", "zstd:5"}) {
+      RecordPipeline pipeline = new RecordPipeline(generator, 3, 100, 2, 4L);
+      pipeline.setCompression(Compression.parse(codec));
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      int[] batches = {0};
+      pipeline.run(1000, (batch, records) -> {
+        batch.writeTo(compressed);
+        batches[0]++;
+      });
+      assertEquals(10, batches[0]);
+      assertTrue(compressed.size() < plain.length());
+      ByteArrayInputStream in = new ByteArrayInputStream(compressed.toByteArray());
+      try (InputStream decompressed = codec.equals("gzip") ? new GZIPInputStream(in) : new ZstdInputStream(in)) {
+        assertEquals(plain.toString(), new String(ByteStreams.toByteArray(decompressed), StandardCharsets.UTF_8));
+      }
+    }
+    for (String level : new String[] {"gzip:-1", "gzip:10"}) {
+      try {
+        Compression.parse(level);
+        fail(level + " should be rejected");
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage().startsWith("gzip levels are 0 to 9"));
+      }
+    }
+    // every worker closes its context, and the compressors registered with it, when the run ends
+    AtomicInteger closed = new AtomicInteger();
+    Object key = new Object();
+    new RecordPipeline((context, out) -> {
+      if (context.getLocal(key) == null) {
+        context.putLocal(key, key);
+        context.onClose(closed::incrementAndGet);
+      }
+      out.append('x');
+    }, 3, 10, 2, 4L).run(1000, (batch, records) -> { });
+    assertEquals(3, closed.get());
+  }
+
+}
@@ -0,0 +1,62 @@
+package com.orange.datagen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class DistributionTest {
+
+  @Test
+  public void skewedDistributions() {
+    GeneratorContext context = new GeneratorContext(17L);
+    int draws = 50000;
+    FieldGenerator weighted = TemplateCompiler.compileFunction("weighted(CA:40, NY:25, TX:35, XX:0)");
+    Map<Object, Integer> counts = new HashMap<>();
+    for (int i = 0; i < draws; i++) {
+      counts.merge(weighted.generate(context), 1, Integer::sum);
+    }
+    assertEquals(0.40, counts.get("CA") / (double) draws, 0.01);
+    assertEquals(0.25, counts.get("NY") / (double) draws, 0.01);
+    assertEquals(0.35, counts.get("TX") / (double) draws, 0.01);
+    assertTrue(!counts.containsKey("XX"));
+
+    FieldGenerator zipf = TemplateCompiler.compileFunction("zipf(1000, 1.2)");
+    double harmonic = 0;
+    for (int k = 1; k <= 1000; k++) {
+      harmonic += Math.pow(k, -1.2);
+    }
+    long[] ranks = new long[draws];
+    zipf.fillLongs(context, ranks, draws);
+    int first = 0;
+    for (long rank : ranks) {
+      assertTrue(rank >= 1 && rank <= 1000);
+      first += rank == 1 ? 1 : 0;
+    }
+    assertEquals(1 / harmonic, first / (double) draws, 0.01);
+
+    double[] values = new double[draws];
+    TemplateCompiler.compileFunction("normal(100, 15)").fillDoubles(context, values, draws);
+    double sum = 0;
+    double squares = 0;
+    for (double value : values) {
+      sum += value;
+      squares += value * value;
+    }
+    double mean = sum / draws;
+    assertEquals(100, mean, 0.5);
+    assertEquals(15, Math.sqrt(squares / draws - mean * mean), 0.5);
+
+    TemplateCompiler.compileFunction("exp(0.5)").fillDoubles(context, values, draws);
+    sum = 0;
+    for (double value : values) {
+      assertTrue(value >= 0);
+      sum += value;
+    }
+    assertEquals(2, sum / draws, 0.05);
+  }
+
+}
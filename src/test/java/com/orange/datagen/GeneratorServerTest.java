@@ -0,0 +1,84 @@
+package com.orange.datagen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+public class GeneratorServerTest {
+
+  @Test
+  public void serverStreamsCachedTemplates() throws Exception {
+    String template = "{\"id\":\"uuid\", \"n\":\"int(1,100)\"}";
+    StringBuilder expected = new StringBuilder();
+    new RecordPipeline(TemplateCompiler.compile(template, 0), 1, RecordPipeline.DEFAULT_BATCH_SIZE, 2, 8L)
+        .run(2500, (batch, records) -> expected.append(batch));
+    GeneratorServer server = new GeneratorServer(new InetSocketAddress("127.0.0.1", 0), 2, 4);
+    server.start();
+    try {
+      for (int i = 0; i < 2; i++) {
+        HttpURLConnection connection = post(server, "count=2500&seed=8", template);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("chunked", connection.getHeaderField("Transfer-Encoding"));
+        try (InputStream in = connection.getInputStream()) {
+          assertEquals(expected.toString(), new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+      }
+      assertEquals(1, server.cacheStats().missCount());
+      assertEquals(1, server.cacheStats().hitCount());
+      HttpURLConnection csv = post(server, "count=3&seed=8&format=csv", template);
+      try (InputStream in = csv.getInputStream()) {
+        String[] lines = new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8).split("\n");
+        assertEquals("id,n", lines[0]);
+        assertEquals(4, lines.length);
+      }
+      HttpURLConnection badFormat = post(server, "count=3&format=xml", template);
+      assertEquals(400, badFormat.getResponseCode());
+      try (InputStream in = badFormat.getErrorStream()) {
+        assertTrue(new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8).startsWith("format must be"));
+      }
+      HttpURLConnection negative = post(server, "count=-1", template);
+      assertEquals(400, negative.getResponseCode());
+      // each request tracks its own unique(...) values, so a seed repeats the same records
+      String unique = "{\"n\":\"unique(int(1,50))\"}";
+      String first = null;
+      for (int i = 0; i < 2; i++) {
+        HttpURLConnection connection = post(server, "count=50&seed=3", unique);
+        assertEquals(200, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+          String body = new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+          assertEquals(50, body.split("\n").length);
+          assertTrue(first == null || first.equals(body));
+          first = body;
+        }
+      }
+      HttpURLConnection badTemplate = post(server, "count=3", "{\"n\":\"int(5,1)\"}");
+      assertEquals(400, badTemplate.getResponseCode());
+      try (InputStream in = badTemplate.getErrorStream()) {
+        assertTrue(new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8).startsWith("min is greater"));
+      }
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static HttpURLConnection post(GeneratorServer server, String query, String template) throws Exception {
+    URL url = new URL("http://127.0.0.1:" + server.getPort() + "/generate?" + query);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(template.getBytes(StandardCharsets.UTF_8));
+    }
+    return connection;
+  }
+
+}
@@ -2,19 +2,56 @@ package com.orange.datagen;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.orange.datagen.util.FingerprintSet;
+import com.orange.datagen.util.RecordBuffer;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
 
 /**
  *
  */
 public class JsonGeneratorTest {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @Test
   public void genEmpty() {
     String template = "{}";
@@ -67,8 +104,449 @@ public class JsonGeneratorTest {
     assertEquals(template, getRandom(template, 1, 1));
   }
 
+  @Test
+  public void genCompiledFunctions() {
+    String template = "{\"phone\":\"cat(408, -, int(400, 999))\", \"state\":\"upper(random(ca,ny))\"," +
+            "\"quoted\":\"qs(hello world)\", \"literal\":\"hello\"}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 0);
+    GeneratorContext context = GeneratorContext.unseeded();
+    for (int i = 0; i < 100; i++) {
+      JsonObject jsonObject = ((JsonObject) generator.generate(context));
+      assertTrue(jsonObject.get("phone").getAsString().matches("408-\\d{3}"));
+      assertTrue(jsonObject.get("state").getAsString().matches("CA|NY"));
+      assertEquals("\"hello world\"", jsonObject.get("quoted").getAsString());
+      assertEquals("hello", jsonObject.get("literal").getAsString());
+    }
+  }
+
+  @Test
+  public void nestedJsonIsWrittenAsObject() {
+    String template = "{\"id\":\"int(1,9)\", \"payload\":\"json({\\\"code\\\":\\\"int(100,199)\\\"," +
+            " \\\"tags\\\":[\\\"random(a,b)\\\"]}, 1, 2)\"}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 0);
+    GeneratorContext context = GeneratorContext.unseeded();
+    RecordBuffer buffer = new RecordBuffer();
+    Set<Integer> codes = new HashSet<>();
+    for (int i = 0; i < 200; i++) {
+      buffer.reset();
+      generator.writeJson(context, buffer);
+      JsonObject payload = new JsonParser().parse(buffer.toString()).getAsJsonObject().getAsJsonObject("payload");
+      int code = payload.get("code").getAsInt();
+      assertTrue(code >= 100 && code <= 199);
+      assertEquals(2, payload.getAsJsonArray("tags").size());
+      codes.add(code);
+      JsonObject generated = (JsonObject) generator.generate(context);
+      assertTrue(generated.get("payload").isJsonObject());
+    }
+    assertTrue(codes.size() > 1);
+  }
+
+  @Test
+  public void writeJsonMatchesGson() {
+    String template = "{\"literal\":\"tab\\there \\\"quoted\\\" \\\\ \\u2028 caf\\u00e9\"," +
+            "\"int\":\"int\", \"double\":\"double\", \"boolean\":true, \"null\":null," +
+            "\"array\":[\"a\", 1, {\"k\":\"v\"}], \"object\":{\"n\":\"long(5,6)\"}}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 2);
+    RecordBuffer buffer = new RecordBuffer(8);
+    generator.writeJson(GeneratorContext.unseeded(), buffer);
+    JsonObject parsed = new JsonParser().parse(buffer.toString()).getAsJsonObject();
+    assertEquals(parsed.toString(), buffer.toString());
+    assertEquals("tab\there quoted \\ \u2028 caf\u00e9", parsed.get("literal").getAsString());
+    assertEquals(6, parsed.get("array").getAsJsonArray().size());
+  }
+
+  @Test
+  public void pipelineWritesAllEvents() throws Exception {
+    FieldGenerator generator = TemplateCompiler.compile("{\"id\":\"int(1,10)\"}", 0);
+    RecordPipeline pipeline = new RecordPipeline(generator, 3, 7, 2, 42L);
+    StringBuilder out = new StringBuilder();
+    long written = pipeline.run(150, (batch, records) -> {
+      assertTrue(records > 0 && records <= 7);
+      out.append(batch);
+    });
+    assertEquals(150, written);
+    assertEquals(150, out.toString().split("\n").length);
+  }
+
+  @Test
+  public void sameSeedSameOutput() throws Exception {
+    String template = "{\"id\":\"uuid\", \"name\":\"alpha(8)\", \"n\":\"long\", \"d\":\"double(1,2)\"," +
+            "\"b\":true, \"c\":\"random(a,b,c)\"}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 0);
+    StringBuilder first = new StringBuilder();
+    StringBuilder second = new StringBuilder();
+    new RecordPipeline(generator, 3, 7, 2, 7L).run(60, (batch, records) -> first.append(batch));
+    new RecordPipeline(generator, 3, 7, 2, 7L).run(60, (batch, records) -> second.append(batch));
+    assertEquals(first.toString(), second.toString());
+  }
+
+  @Test
+  public void refDrawsExportedKeys() throws Exception {
+    KeyFile.setDirectory(folder.getRoot().toPath());
+    try {
+      FieldGenerator customers = TemplateCompiler.compile("{\"customer\":{\"id\":\"long(1000,999999)\"}}", 0);
+      List<Long> ids = new ArrayList<>();
+      try (KeyFile.Writer keys = KeyFile.writer("customers.customer.id")) {
+        FieldGenerator exporting = FieldGenerators.exportKeys(customers, "customer.id", keys);
+        StringBuilder out = new StringBuilder();
+        new RecordPipeline(exporting, 3, 7, 2, 5L).run(500, (batch, records) -> out.append(batch));
+        for (String line : out.toString().split("\n")) {
+          ids.add(new JsonParser().parse(line).getAsJsonObject().getAsJsonObject("customer").get("id").getAsLong());
+        }
+      }
+      KeyFile saved = KeyFile.open("customers.customer.id");
+      assertEquals(500, saved.size());
+      for (int i = 0; i < ids.size(); i++) {
+        assertEquals((long) ids.get(i), saved.get(i));
+      }
+      FieldGenerator orders = TemplateCompiler.compile("{\"customer\":\"ref(customers.customer.id)\"}", 0);
+      GeneratorContext context = new GeneratorContext(3L);
+      for (int i = 0; i < 200; i++) {
+        long customer = ((JsonObject) orders.generate(context)).get("customer").getAsLong();
+        assertTrue(ids.contains(customer));
+      }
+    } finally {
+      KeyFile.setDirectory(Paths.get("."));
+    }
+  }
+
+  @Test
+  public void uniqueRedrawsRepeatedValues() throws Exception {
+    String template = "{\"code\":\"unique(cat(alpha(1), int(1,99)))\", \"n\":\"unique(int(1,3000))\"}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 0);
+    StringBuilder out = new StringBuilder();
+    RecordPipeline pipeline = new RecordPipeline(generator, 3, 50, 2, 9L);
+    pipeline.run(2000, (batch, records) -> out.append(batch));
+    Set<String> codes = new HashSet<>();
+    Set<Integer> numbers = new HashSet<>();
+    for (String line : out.toString().split("\n")) {
+      JsonObject record = new JsonParser().parse(line).getAsJsonObject();
+      assertTrue(codes.add(record.get("code").getAsString()));
+      assertTrue(numbers.add(record.get("n").getAsInt()));
+    }
+    assertEquals(2000, codes.size());
+    JsonArray summary = FieldGenerators.uniqueSummary(generator, pipeline.runState());
+    assertEquals(2, summary.size());
+    assertEquals(2000, summary.get(1).getAsJsonObject().get("values").getAsLong());
+    assertTrue(summary.get(1).getAsJsonObject().get("redraws").getAsLong() > 0);
+
+    FingerprintSet bloom = FingerprintSet.bloom(64 * 1024, 10000);
+    for (long i = 0; i < 10000; i++) {
+      bloom.add(FingerprintSet.mix(i));
+      assertTrue(!bloom.add(FingerprintSet.mix(i)));
+    }
+    assertTrue(bloom.size() > 9900);
+
+    FieldGenerator exhausted = TemplateCompiler.compile("{\"n\":\"unique(int(1,5))\"}", 0);
+    try {
+      new RecordPipeline(exhausted, 1, 10, 2, 9L).run(10, (batch, records) -> { });
+      fail("unique(int(1,5)) should run out of values");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void uniqueRedrawsKeepSequenceNumbers() throws Exception {
+    // "1" + "12" and "11" + "2" are the same text, so some records re-draw
+    String template = "{\"code\":\"unique(cat(int(1,99), seq))\", \"id\":\"seq\"}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 0);
+    RecordPipeline pipeline = new RecordPipeline(generator, 1, 100, 2, 13L);
+    StringBuilder out = new StringBuilder();
+    pipeline.run(3000, (batch, records) -> out.append(batch));
+    String[] lines = out.toString().split("\n");
+    for (int i = 0; i < lines.length; i++) {
+      JsonObject record = new JsonParser().parse(lines[i]).getAsJsonObject();
+      String code = record.get("code").getAsString();
+      String number = String.valueOf(1 + i);
+      assertTrue(code.endsWith(number));
+      int prefix = Integer.parseInt(code.substring(0, code.length() - number.length()));
+      assertTrue(prefix >= 1 && prefix <= 99);
+      assertEquals(1 + i, record.get("id").getAsLong());
+    }
+    assertTrue(FieldGenerators.uniqueSummary(generator, pipeline.runState()).get(0).getAsJsonObject()
+        .get("redraws").getAsLong() > 0);
+  }
+
+  @Test
+  public void chunksDoNotDependOnThreadCount() throws Exception {
+    String template = "{\"id\":\"uuid\", \"n\":\"int(1,100)\", \"tags\": [{\"t\": \"alpha(4)\"}]}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 3);
+    StringBuilder one = new StringBuilder();
+    new RecordPipeline(generator, 1, 16, 2, 11L).run(1000, (batch, records) -> one.append(batch));
+    for (int threads : new int[] {2, 5}) {
+      StringBuilder many = new StringBuilder();
+      assertEquals(1000, new RecordPipeline(generator, threads, 16, 1, 11L)
+          .run(1000, (batch, records) -> many.append(batch)));
+      assertEquals(one.toString(), many.toString());
+    }
+    // every chunk is seeded differently
+    String[] lines = one.toString().split("\n");
+    assertEquals(1000, new HashSet<>(Arrays.asList(lines)).size());
+    assertEquals(ChunkScheduler.chunkSeed(11L, 3), ChunkScheduler.chunkSeed(11L, 3));
+    assertTrue(ChunkScheduler.chunkSeed(11L, 3) != ChunkScheduler.chunkSeed(11L, 4));
+  }
+
+  @Test
+  public void sequencesAreUniqueAcrossThreads() throws Exception {
+    String template = "{\"id\":\"seq(1001)\", \"other\":\"seq\"," +
+            "\"ts\":\"datetime_seq(2021-08-11T00:00:00,2021-08-11T23:59:59,yyyy-MM-dd HH:mm:ss,UTC,second)\"}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 0);
+    Set<Long> ids = new HashSet<>();
+    new RecordPipeline(generator, 4, 100, 2, 1L).run(20000, (batch, records) -> {
+      for (String line : batch.toString().split("\n")) {
+        JsonObject jsonObject = new JsonParser().parse(line).getAsJsonObject();
+        assertTrue(ids.add(jsonObject.get("id").getAsLong()));
+        assertTrue(jsonObject.get("other").getAsLong() >= 1);
+        assertTrue(jsonObject.get("ts").getAsString().startsWith("2021-08-11 "));
+      }
+    });
+    assertEquals(20000, ids.size());
+    assertTrue(Collections.min(ids) == 1001);
+  }
+
+  @Test
+  public void randomDateTimeWithinRange() {
+    String template = "{\"ts\": \"datetime(2018-01-20T00:00:00.000Z,2018-01-20T00:33:14.967Z)\","
+        + " \"day\": \"date(2018-02-27,2018-03-02)\", \"iso\": \"datetime\"}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 1);
+    GeneratorContext context = new GeneratorContext(42L);
+    Set<String> days = new HashSet<>();
+    for (int i = 0; i < 2000; i++) {
+      JsonObject jsonObject = FieldGenerators.toJsonElement(context, generator).getAsJsonObject();
+      String ts = jsonObject.get("ts").getAsString();
+      assertTrue(ts, ts.compareTo("2018-01-20T00:00:00.000Z") >= 0 && ts.compareTo("2018-01-20T00:33:14.967Z") < 0);
+      days.add(jsonObject.get("day").getAsString());
+      assertTrue(jsonObject.get("iso").getAsString().compareTo("2018-12-31T23:59:59.000Z") < 0);
+    }
+    assertEquals(new HashSet<>(Arrays.asList("2018-02-27", "2018-02-28", "2018-03-01")), days);
+  }
+
+  @Test
+  public void timestampCacheMatchesFormatter() {
+    String[] patterns = {DateTimes.ISO_PATTERN, "dd/MMM/yyyy:HH:mm:ss Z", "yyyy-MM-dd'T'HH:mm:ss.SSSSSSXXX",
+        "s.S 'o''clock' h a VV", "yyyy-MM-dd", "HH:mm:ss.nnn"};
+    String[] zones = {"UTC", "America/Los_Angeles", "Europe/Amsterdam", "Asia/Kolkata"};
+    SplittableRandom random = new SplittableRandom(7);
+    for (String pattern : patterns) {
+      for (String zone : zones) {
+        TimestampFormat format = new TimestampFormat(pattern, ZoneId.of(zone));
+        TimestampFormat.Cache cache = format.newCache();
+        long millis = random.nextLong(-2_000_000_000_000L, 2_000_000_000_000L);
+        for (int i = 0; i < 5000; i++) {
+          // mostly small steps, so values share minutes, with occasional jumps
+          millis += i % 100 == 0 ? random.nextLong(100_000_000_000L) : random.nextInt(2000);
+          assertEquals(format.formatter().format(Instant.ofEpochMilli(millis)), cache.format(millis));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void pacedRunFollowsRateProfile() throws Exception {
+    assertEquals(5000.0, RateProfile.parseRate("5k/s"), 0);
+    assertEquals(5.0, RateProfile.parseRate("300/m"), 0);
+    RateProfile ramp = RateProfile.parse("ramp:2s", 1000);
+    assertEquals(2.0, ramp.timeOf(1000), 1e-9);
+    assertEquals(3.0, ramp.timeOf(2000), 1e-9);
+    RateProfile burst = RateProfile.parse("burst:3x:1s/4s", 100);
+    assertEquals(3.0, burst.timeOf(300), 1e-9);
+    assertEquals(4.0, burst.timeOf(600), 1e-9);
+    assertEquals(7.5, burst.timeOf(1050), 1e-9);
+
+    FieldGenerator generator = TemplateCompiler.compile("{\"id\": \"seq\"}", 1);
+    Pacer pacer = new Pacer(RateProfile.constant(20000), 5000, Long.MAX_VALUE);
+    RecordPipeline pipeline = new RecordPipeline(generator, 3, 100, 2, 1L);
+    RecordBuffer out = new RecordBuffer();
+    long start = System.nanoTime();
+    assertEquals(5000, pipeline.runPaced(pacer, (batch, records) -> out.append(batch)));
+    // the last event is due at 0.25s
+    assertTrue(System.nanoTime() - start >= 240_000_000L);
+    assertEquals(5000, out.toString().split("\n").length);
+  }
+
+  @Test
+  public void profilerSamplesFieldPaths() throws Exception {
+    String template = "{\"id\": \"seq\", \"user\": {\"name\": \"alpha\"}, \"tags\": [{\"t\": \"uuid\"}]}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 2);
+    FieldProfiler profiler = new FieldProfiler();
+    RecordPipeline pipeline = new RecordPipeline(profiler.instrument(generator), 2, 100, 2, 1L);
+    pipeline.setSampleInterval(10);
+    RunMetrics metrics = new RunMetrics();
+    pipeline.setMetrics(metrics);
+    RecordBuffer plain = new RecordBuffer();
+    RecordBuffer profiled = new RecordBuffer();
+    pipeline.run(2000, (batch, records) -> profiled.append(batch));
+    new RecordPipeline(generator, 2, 100, 2, 1L).run(2000, (batch, records) -> plain.append(batch));
+    // instrumenting does not change the output
+    assertEquals(plain.toString(), profiled.toString());
+    assertEquals(2000, metrics.records());
+    assertEquals(profiled.size(), metrics.bytes());
+
+    Map<String, Long> samples = new HashMap<>();
+    for (JsonElement field : profiler.summary()) {
+      samples.put(field.getAsJsonObject().get("path").getAsString(), field.getAsJsonObject().get("samples").getAsLong());
+    }
+    assertEquals(Long.valueOf(200), samples.get(FieldProfiler.ROOT));
+    assertEquals(Long.valueOf(200), samples.get("$.user.name"));
+    // two array elements per record
+    assertEquals(Long.valueOf(400), samples.get("$.tags[]"));
+    assertEquals(Long.valueOf(400), samples.get("$.tags[].t"));
+  }
+
+  @Test
+  public void choiceOptionsArePreEncoded() {
+    FieldGenerator choice = TemplateCompiler.compileFunction("random(caf\u00e9,1.50,007,TRUE,'New York')");
+    Set<String> expected = new HashSet<>(Arrays.asList("caf\u00e9", "1.5", "7", "true", "New York"));
+    GeneratorContext context = new GeneratorContext(3L);
+    Set<String> seen = new HashSet<>();
+    for (int i = 0; i < 200; i++) {
+      RecordBuffer json = new RecordBuffer();
+      choice.writeJson(context, json);
+      RecordBuffer text = new RecordBuffer();
+      choice.writeText(context, text);
+      seen.add(new JsonParser().parse(json.toString()).getAsString());
+      seen.add(text.toString());
+    }
+    assertEquals(expected, seen);
+  }
+
+  @Test
+  public void columnEngineMatchesRecordEngine() throws Exception {
+    // with a single random column both engines draw the same values in the same order
+    String template = "{\"id\": \"seq(5)\", \"tag\": \"a-b\", \"none\": null,"
+        + " \"x\": {\"v\": [\"double(0,1)\"]}}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 1);
+    RecordBuffer rows = new RecordBuffer();
+    RecordBuffer columns = new RecordBuffer();
+    new RecordPipeline(generator, 1, 30, 2, 3L).run(100, (batch, records) -> rows.append(batch));
+    new RecordPipeline(new ColumnBatch(generator)::writeJson, 1, 30, 2, 3L)
+        .run(100, (batch, records) -> columns.append(batch));
+    assertEquals(rows.toString(), columns.toString());
+
+    template = "{\"n\": \"int(1,10)\", \"ok\": true, \"color\": \"random(red,green)\", \"day\": \"date\","
+        + " \"name\": \"alpha(4)\", \"id\": \"uuid\"}";
+    ColumnBatch batch = new ColumnBatch(TemplateCompiler.compile(template, 0));
+    RecordBuffer out = new RecordBuffer();
+    batch.writeJson(new GeneratorContext(1L), 50, out);
+    batch.writeJson(new GeneratorContext(2L), 20, out);
+    String[] lines = out.toString().split("\n");
+    assertEquals(70, lines.length);
+    for (String line : lines) {
+      JsonObject record = new JsonParser().parse(line).getAsJsonObject();
+      int n = record.get("n").getAsInt();
+      assertTrue(n >= 1 && n <= 10);
+      assertTrue(record.get("ok").getAsJsonPrimitive().isBoolean());
+      assertTrue(record.get("color").getAsString().matches("red|green"));
+      assertTrue(record.get("day").getAsString().matches("\\d{4}-\\d{2}-\\d{2}"));
+      assertEquals(4, record.get("name").getAsString().length());
+      assertEquals(36, record.get("id").getAsString().length());
+    }
+  }
+
+  @Test
+  public void mappedOutputHoldsEveryBatch() throws Exception {
+    FieldGenerator generator = TemplateCompiler.compile("{\"n\": \"int\", \"s\": \"alpha(30)\"}", 0);
+    RecordBuffer expected = new RecordBuffer();
+    new RecordPipeline(generator, 3, 50, 2, 5L).run(6000, (batch, records) -> expected.append(batch));
+    File file = folder.newFile("out.json");
+    // small windows, so they are remapped and overlap between workers
+    try (MappedOutput output = new MappedOutput(file.toPath(), 8192)) {
+      output.writeHeader("header\n".getBytes(StandardCharsets.UTF_8));
+      assertEquals(6000, new RecordPipeline(generator, 3, 50, 2, 5L).runParallel(6000, output::writer));
+      assertEquals(expected.size() + 7, output.size());
+    }
+    String[] lines = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).split("\n");
+    assertEquals("header", lines[0]);
+    String[] records = Arrays.copyOfRange(lines, 1, lines.length);
+    String[] expectedRecords = expected.toString().split("\n");
+    Arrays.sort(records);
+    Arrays.sort(expectedRecords);
+    assertTrue(Arrays.equals(expectedRecords, records));
+    assertEquals(expected.size() + 7, file.length());
+
+    // a file sized for more than the run is cut back to the bytes written
+    File presized = folder.newFile("presized.json");
+    try (MappedOutput output = new MappedOutput(presized.toPath(), 8192, 4L * expected.size())) {
+      assertEquals(4L * expected.size(), presized.length());
+      new RecordPipeline(generator, 3, 50, 2, 5L).runParallel(6000, output::writer);
+    }
+    assertEquals(expected.size(), presized.length());
+  }
+
+  @Test
+  public void arrowColumnsFollowTemplateTypes() throws Exception {
+    String template = "{\"id\": \"seq\", \"n\": \"int(1,10)\", \"x\": \"double(0,1)\", \"ok\": true,"
+        + " \"color\": \"random(red,green,blue)\", \"ts\": \"datetime(2018-01-20T00:00:00.000Z,2018-01-21T00:00:00.000Z)\","
+        + " \"user\": {\"name\": \"alpha(5)\"}}";
+    ArrowOutput output = new ArrowOutput(TemplateCompiler.compile(template, 0), 2, 300, 1L);
+    RunMetrics metrics = new RunMetrics();
+    output.setMetrics(metrics);
+    File file = folder.newFile("out.arrow");
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      assertEquals(2000, output.write(channel, 2000));
+    }
+    assertEquals(2000, metrics.records());
+
+    try (BufferAllocator allocator = new RootAllocator();
+         ArrowFileReader reader = new ArrowFileReader(FileChannel.open(file.toPath()), allocator)) {
+      VectorSchemaRoot root = reader.getVectorSchemaRoot();
+      assertEquals(Arrays.asList("id", "n", "x", "ok", "color", "ts", "user.name"),
+          Arrays.asList(root.getSchema().getFields().stream().map(Field::getName).toArray()));
+      Set<String> colors = new HashSet<>();
+      long rows = 0;
+      Dictionary dictionary = reader.getDictionaryVectors().values().iterator().next();
+      while (reader.loadNextBatch()) {
+        assertTrue(root.getRowCount() <= 300);
+        for (int i = 0; i < root.getRowCount(); i++) {
+          assertTrue(((BigIntVector) root.getVector("id")).get(i) >= 0);
+          int n = ((IntVector) root.getVector("n")).get(i);
+          assertTrue(n >= 1 && n <= 10);
+          long ts = ((TimeStampMilliTZVector) root.getVector("ts")).get(i);
+          assertTrue(ts >= Instant.parse("2018-01-20T00:00:00Z").toEpochMilli()
+              && ts < Instant.parse("2018-01-21T00:00:00Z").toEpochMilli());
+          assertEquals(5, root.getVector("user.name").getObject(i).toString().length());
+          int index = ((IntVector) root.getVector("color")).get(i);
+          colors.add(dictionary.getVector().getObject(index).toString());
+        }
+        rows += root.getRowCount();
+      }
+      assertEquals(2000, rows);
+      assertEquals(new HashSet<>(Arrays.asList("red", "green", "blue")), colors);
+      assertTrue(root.getVector("ok") instanceof BitVector);
+      assertTrue(root.getVector("x") instanceof Float8Vector);
+    }
+  }
+
+  @Test
+  public void recordRangesMatchTheFullRun() throws Exception {
+    String template = "{\"id\": \"seq\", \"n\": \"int(1,1000)\", \"name\": \"alpha(6)\","
+        + " \"ts\": \"datetime_seq(2021-08-11T00:00:00,2021-08-11T23:59:59,yyyy-MM-dd HH:mm:ss,UTC,second)\","
+        + " \"items\": [{\"line\": \"seq(100)\"}]}";
+    FieldGenerator generator = TemplateCompiler.compile(template, 3);
+    ColumnBatch columns = new ColumnBatch(generator);
+    List<RecordPipeline> engines = Arrays.asList(new RecordPipeline(generator, 3, 64, 2, 21L),
+        new RecordPipeline(columns.jsonEncoder(), 3, 64, 2, 21L));
+    for (RecordPipeline pipeline : engines) {
+      StringBuilder full = new StringBuilder();
+      pipeline.run(1000, (batch, records) -> full.append(batch));
+      String[] lines = full.toString().split("\n");
+      for (int i = 0; i < lines.length; i++) {
+        JsonObject record = new JsonParser().parse(lines[i]).getAsJsonObject();
+        // seq counts records, and an array of three elements draws three values per record
+        assertEquals(1 + i, record.get("id").getAsLong());
+        assertEquals(100 + 3 * i, record.getAsJsonArray("items").get(0).getAsJsonObject().get("line").getAsLong());
+      }
+      // any range, from the middle of a batch on, comes out as in the full run
+      StringBuilder range = new StringBuilder();
+      assertEquals(300, pipeline.run(437, 300, (batch, records) -> range.append(batch)));
+      assertEquals(String.join("\n", Arrays.copyOfRange(lines, 437, 737)) + "\n", range.toString());
+    }
+  }
+
   private String getRandom(String template, int eventCount, int nestedArraySize) {
     JsonGenerator jsonGenerator = new JsonGenerator();
     return jsonGenerator.generate(template, eventCount, nestedArraySize).toString();
   }
+
 }
@@ -0,0 +1,110 @@
+package com.orange.datagen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class ShardedOutputTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shardedOutputRollsFiles() throws Exception {
+    FieldGenerator generator = TemplateCompiler.compile("{\"id\":\"int(1,10)\"}", 0);
+    RecordPipeline pipeline = new RecordPipeline(generator, 2, 10, 2, 42L);
+    ShardedOutput output = new ShardedOutput(folder.getRoot().toPath(), ".json", Long.MAX_VALUE, 40);
+    try {
+      assertEquals(200, pipeline.runParallel(200, output::shard));
+    } finally {
+      output.close();
+    }
+    // 20 chunks of 10 spread over 2 workers that roll at 40 records
+    assertTrue(output.files().size() >= 5 && output.files().size() <= 6);
+    long records = 0;
+    for (ShardedOutput.ShardFile file : output.files()) {
+      assertTrue(file.getRecords() <= 40);
+      assertEquals(file.getRecords(), Files.readAllLines(folder.getRoot().toPath().resolve(file.getName())).size());
+      records += file.getRecords();
+    }
+    assertEquals(200, records);
+    assertTrue(Files.exists(folder.getRoot().toPath().resolve(ShardedOutput.MANIFEST)));
+  }
+
+  @Test
+  public void parseSizeNamesTheOption() {
+    assertEquals(64 * 1024, ShardedOutput.parseSize(" 64k", "--max-file-size"));
+    assertEquals(2L << 30, ShardedOutput.parseSize("2G", "--unique-bloom"));
+    for (String size : new String[] {"", "  ", "K", "ten"}) {
+      try {
+        ShardedOutput.parseSize(size, "--unique-bloom");
+        fail("'" + size + "' should be rejected");
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage().startsWith("--unique-bloom needs a size"));
+      }
+    }
+  }
+
+  @Test
+  public void compressedShardsDecompressOnTheirOwn() throws Exception {
+    FieldGenerator generator = TemplateCompiler.compile("{\"id\":\"seq\", \"name\":\"alpha(20)\"}", 0);
+    StringBuilder plain = new StringBuilder();
+    new RecordPipeline(generator, 2, 100, 2, 6L).run(1000, (batch, records) -> plain.append(batch));
+    List<String> expected = new ArrayList<>(Arrays.asList(plain.toString().split("\n")));
+    Collections.sort(expected);
+    for (String codec : new String[] {"gzip", "zstd"}) {
+      Path directory = folder.newFolder(codec).toPath();
+      Compression compression = Compression.parse(codec);
+      RecordPipeline pipeline = new RecordPipeline(generator, 2, 100, 2, 6L);
+      pipeline.setCompression(compression);
+      // a size limit below one batch still keeps every batch whole
+      ShardedOutput output = new ShardedOutput(directory, ".json" + compression.extension(), 1000, 250);
+      output.setCompressed(true);
+      try {
+        assertEquals(1000, pipeline.runParallel(1000, output::shard));
+      } finally {
+        output.close();
+      }
+      JsonObject manifest = new JsonParser().parse(new String(Files.readAllBytes(
+          directory.resolve(ShardedOutput.MANIFEST)), StandardCharsets.UTF_8)).getAsJsonObject();
+      assertEquals(1000, manifest.get("records").getAsLong());
+      List<String> lines = new ArrayList<>();
+      long records = 0;
+      for (JsonElement entry : manifest.getAsJsonArray("files")) {
+        Path file = directory.resolve(entry.getAsJsonObject().get("file").getAsString());
+        try (InputStream in = codec.equals("gzip") ? new GZIPInputStream(Files.newInputStream(file))
+            : new ZstdInputStream(Files.newInputStream(file))) {
+          String text = new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+          List<String> fileLines = Arrays.asList(text.split("\n"));
+          assertEquals(entry.getAsJsonObject().get("records").getAsLong(), fileLines.size());
+          assertTrue(fileLines.size() <= 250);
+          lines.addAll(fileLines);
+        }
+        records += entry.getAsJsonObject().get("records").getAsLong();
+      }
+      assertEquals(1000, records);
+      Collections.sort(lines);
+      assertEquals(expected, lines);
+    }
+  }
+
+}
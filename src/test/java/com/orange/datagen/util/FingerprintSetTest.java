@@ -0,0 +1,51 @@
+package com.orange.datagen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+public class FingerprintSetTest {
+
+  @Test
+  public void concurrentAddsOfTheSameValueAreNewOnce() throws Exception {
+    for (FingerprintSet set : new FingerprintSet[] {FingerprintSet.exact(), FingerprintSet.bloom(1 << 20, 50000)}) {
+      int threads = 4;
+      CyclicBarrier start = new CyclicBarrier(threads);
+      LongAdder added = new LongAdder();
+      ExecutorService executorService = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+          futures.add(executorService.submit(() -> {
+            start.await();
+            // every thread adds the same values
+            for (long i = 0; i < 50000; i++) {
+              if (set.add(FingerprintSet.mix(i))) {
+                added.increment();
+              }
+            }
+            return null;
+          }));
+        }
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      } finally {
+        executorService.shutdownNow();
+      }
+      // a Bloom filter may take a new value for a seen one, never the other way round
+      assertEquals(set.size(), added.sum());
+      assertTrue(added.sum() <= 50000 && added.sum() > 49000);
+    }
+  }
+
+}